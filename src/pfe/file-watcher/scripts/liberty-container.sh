@@ -130,7 +130,7 @@ function create() {
 	# since Websphere Liberty Docker images now run as non-root.
 	if [ ! -f /file-watcher/idc/artifacts/artifacts.tar.gz ]; then
 		echo "Archiving /file-watcher/idc/artifacts dir"
-		tar czf /file-watcher/idc/artifacts.tar.gz -C /file-watcher/idc/artifacts .
+		tar czf /file-watcher/idc/artifacts.tar.gz --exclude=.idc-daemon -C /file-watcher/idc/artifacts .
 		mv /file-watcher/idc/artifacts.tar.gz /file-watcher/idc/artifacts/artifacts.tar.gz
 		chmod -R +rx /file-watcher/idc/artifacts/artifacts.tar.gz
 	fi
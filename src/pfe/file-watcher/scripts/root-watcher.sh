@@ -106,3 +106,7 @@ else
      cat /run/secrets/dockerconfig | base64 --decode > /root/.docker/config.json
    fi
 fi
+
+# Start the idc daemon, which the idc script hands its commands to rather than starting a JVM for each one
+echo "Starting the idc daemon"
+nohup java -jar /file-watcher/idc/artifacts/IDC.jar daemon > /codewind-workspace/.logs/idc-daemon.log 2>&1 &
@@ -0,0 +1,238 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.iterdev;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.codewind.iterdev.Constants.ErrorCode;
+
+/**
+ * Runs idc builds for many apps at once, at most maxConcurrentBuilds at a
+ * time and never more than one at a time for the same app, since they share
+ * its container and db.
+ *
+ * Each app has its own queue of builds. Apps take turns: when a build slot is
+ * free it goes to the app that has been waiting longest, and an app with more
+ * builds queued goes to the back of the line after each one, so a burst of
+ * builds for one app can't hold up the others. A build with the same options
+ * as one already queued for the app, and not yet started, in any order, is
+ * merged into it rather than queued again, and its client gets the same output
+ * and exit code.
+ *
+ * A queued build doesn't start until no more builds have been asked for for
+ * its app for quietWindow milliseconds, so that a burst of file saves becomes
+ * one build. That includes builds asked for while the app is waiting for a
+ * free slot, which keeps its place in line. Whatever is queued for an app
+ * when one of its builds starts, or asked for while it runs, becomes a single
+ * follow-up build, which runs once it has finished. The follow-up runs with
+ * the options of the latest request, as each one carries the app's current
+ * settings, and every client waiting for one of the builds it replaced gets
+ * its output and exit code.
+ */
+public class BuildScheduler {
+
+	private final int maxConcurrentBuilds;
+
+	private final long quietWindow;
+
+	private final ExecutorService workers;
+
+	private final ScheduledExecutorService timer;
+
+	/** Apps with builds queued and none running, in the order they get a build slot. */
+	private final Deque<App> ready = new ArrayDeque<>();
+
+	private final Map<File, App> apps = new HashMap<>();
+
+	private int running = 0;
+
+	public BuildScheduler(int maxConcurrentBuilds, long quietWindow) {
+		this.maxConcurrentBuilds = Math.max(1, maxConcurrentBuilds);
+		this.quietWindow = Math.max(0, quietWindow);
+		this.workers = Executors.newCachedThreadPool(r -> {
+			Thread t = new Thread(r, "idc-build");
+			t.setDaemon(true);
+			return t;
+		});
+		this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "idc-build-timer");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/** Queues a build of the app in appDirectory, returning its exit code when it has run. */
+	public synchronized CompletableFuture<Integer> submit(File appDirectory, String[] args,
+			IDCDaemon.Output output) {
+		App app = apps.computeIfAbsent(appDirectory.getAbsoluteFile(), App::new);
+		app.quietUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(quietWindow);
+		Set<String> options = options(args);
+		for (Build queued : app.queue) {
+			if (queued.options.equals(options)) {
+				Logger.info("Merging build request for " + app.appDirectory + " into one already queued");
+				queued.outputs.add(output);
+				return queued.result;
+			}
+		}
+
+		Build build = new Build(args, options);
+		build.outputs.add(output);
+		app.queue.add(build);
+		if (app.running != null) {
+			collapse(app);
+		} else if (app.queue.size() == 1) {
+			whenQuiet(app);
+		}
+		return build.result;
+	}
+
+	/**
+	 * The command and its options, which idc reads in any order, ignoring any
+	 * that are repeated.
+	 */
+	private static Set<String> options(String[] args) {
+		Set<String> options = new TreeSet<>();
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i].trim();
+			if (!arg.isEmpty()) {
+				options.add(i == 0 ? arg.toLowerCase() : arg);
+			}
+		}
+		return options;
+	}
+
+	/** Replaces the builds queued for the app with the latest of them. */
+	private static void collapse(App app) {
+		Build latest = app.queue.peekLast();
+		for (Build earlier : app.queue) {
+			if (earlier != latest) {
+				latest.outputs.add(earlier.outputs);
+				latest.result.thenAccept(earlier.result::complete);
+			}
+		}
+		app.queue.clear();
+		app.queue.add(latest);
+	}
+
+	/** Makes the app ready for a build slot once its quiet window has passed. */
+	private void whenQuiet(App app) {
+		long remaining = app.quietUntil - System.nanoTime();
+		if (remaining > 0) {
+			timer.schedule(() -> {
+				synchronized (this) {
+					whenQuiet(app);
+				}
+			}, remaining, TimeUnit.NANOSECONDS);
+		} else {
+			ready.add(app);
+			dispatch();
+		}
+	}
+
+	/** Starts queued builds until there are no free slots or none left to start. */
+	private void dispatch() {
+		long now = System.nanoTime();
+		Iterator<App> waiting = ready.iterator();
+		while (running < maxConcurrentBuilds && waiting.hasNext()) {
+			App app = waiting.next();
+			long remaining = app.quietUntil - now;
+			if (remaining > 0) {
+				// Asked for again while waiting for a slot, one timer covers however many times
+				if (!app.dispatchPending) {
+					app.dispatchPending = true;
+					timer.schedule(() -> {
+						synchronized (this) {
+							app.dispatchPending = false;
+							dispatch();
+						}
+					}, remaining, TimeUnit.NANOSECONDS);
+				}
+				continue;
+			}
+			waiting.remove();
+			Build build = app.queue.poll();
+			if (!app.queue.isEmpty()) {
+				collapse(app);
+			}
+			app.running = build;
+			running++;
+			workers.execute(() -> run(app, build));
+		}
+	}
+
+	private void run(App app, Build build) {
+		int exitCode = ErrorCode.unexpectedError.ordinal();
+		try {
+			exitCode = IDCDaemon.run(build.outputs, build.args, app.appDirectory);
+		} finally {
+			synchronized (this) {
+				app.running = null;
+				running--;
+				if (!app.queue.isEmpty()) {
+					whenQuiet(app);
+				} else {
+					apps.remove(app.appDirectory);
+				}
+				dispatch();
+			}
+			build.result.complete(exitCode);
+		}
+	}
+
+	private static class App {
+
+		private final File appDirectory;
+
+		private final Deque<Build> queue = new ArrayDeque<>();
+
+		private Build running;
+
+		/** When the app's quiet window ends, as System.nanoTime. */
+		private long quietUntil;
+
+		/** Set while a timer is due to dispatch again once the quiet window ends. */
+		private boolean dispatchPending;
+
+		App(File appDirectory) {
+			this.appDirectory = appDirectory;
+		}
+	}
+
+	private static class Build {
+
+		private final String[] args;
+
+		private final Set<String> options;
+
+		private final IDCDaemon.Outputs outputs = new IDCDaemon.Outputs();
+
+		private final CompletableFuture<Integer> result = new CompletableFuture<>();
+
+		Build(String[] args, Set<String> options) {
+			this.args = args;
+			this.options = options;
+		}
+	}
+
+}
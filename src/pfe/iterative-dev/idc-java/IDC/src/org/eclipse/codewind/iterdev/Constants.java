@@ -74,6 +74,8 @@ public class Constants {
 	public static final String OPTION_CONTAINER_REMOVE = "container-remove";
 	public static final String OPTION_SYSTEM_CLEANUP = "system-cleanup";
 	public static final String OPTION_HELP = "help";
+	// Hidden, runs idc as a daemon that the idc script passes commands to, see IDCDaemon
+	public static final String OPTION_DAEMON = "daemon";
 	
 	// Build options
 	public static final String BUILD_OPTION_CONFIG = "config";
@@ -139,6 +141,11 @@ public class Constants {
 	public static final String MAVEN_SETTINGS = "MAVEN_SETTINGS";
 	public static final String MAVEN_SETTINGS_KEY = "--mavenSettings=";
 
+	public static final String MAX_CONCURRENT_BUILDS = "MAX_CONCURRENT_BUILDS";
+	public static final String BUILD_QUIET_WINDOW = "BUILD_QUIET_WINDOW";
+	public static final String IDC_LOG_FORMAT = "IDC_LOG_FORMAT";
+	public static final String IDC_LOG_CALLERS = "IDC_LOG_CALLERS";
+
 	public static final String START_MODE_RUN = "run";
 	public static final String START_MODE_DEBUG = "debug";
 	public static final String START_MODE_DEBUG_NO_INIT = "debugNoInit";
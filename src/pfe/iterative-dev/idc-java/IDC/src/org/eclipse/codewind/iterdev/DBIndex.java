@@ -0,0 +1,248 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.iterdev;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of the app dbs in an .idc dir, holding the few values of each that are
+ * needed without opening it: the app dir, last container id, helm release and
+ * image name. It is kept up to date by DBMap as those values are written, so
+ * the app dbs don't all need to be read to find them.
+ *
+ * The index is stored in the db dir as "index", using DBLog, with one
+ * appid/KEY entry per value. If the file is missing, for example on the first
+ * run after an upgrade, it is rebuilt from the app dbs the next time it is
+ * read, and writes to it are skipped until then. The rebuild first creates the
+ * file holding just REBUILDING_KEY, so that writes are made to it from then
+ * on, and replaces it with the values read from the app dbs only if there have
+ * been no writes while they were being read, reading them again if there have.
+ */
+public class DBIndex {
+
+	public static final String INDEX_NAME = "index";
+
+	/** Present while the index is being rebuilt, or if a rebuild didn't finish. */
+	private static final String REBUILDING_KEY = "rebuilding";
+
+	/** The app db keys that are indexed. */
+	public static final List<String> KEYS = Collections.unmodifiableList(Arrays.asList(Constants.DB_APP_DIR,
+			Constants.DB_LAST_CONTAINER_ID, Constants.DB_HELM_RELEASE, Constants.DB_CONTAINER_NAME));
+
+	private static final ConcurrentHashMap<File, DBIndex> INDEXES = new ConcurrentHashMap<>();
+
+	private final File idcBase;
+
+	private final File file;
+
+	private final DBLog log;
+
+	private final Map<String, String> map = new HashMap<>();
+
+	private DBIndex(File idcBase) {
+		this.idcBase = idcBase;
+		this.file = new File(new File(idcBase, "db"), INDEX_NAME);
+		this.log = new DBLog(file);
+	}
+
+	public static DBIndex forBase(File idcBase) {
+		return INDEXES.computeIfAbsent(idcBase.getAbsoluteFile(), DBIndex::new);
+	}
+
+	/** The indexed values of every app db, by app id. */
+	public Map<String /* app id */, Entry> getEntries() throws IOException {
+		synchronized (this) {
+			log.load(map);
+			if (file.exists() && log.get(map, REBUILDING_KEY) == null) {
+				return entries();
+			}
+		}
+
+		rebuild();
+
+		synchronized (this) {
+			log.load(map);
+			return entries();
+		}
+	}
+
+	private Map<String, Entry> entries() {
+		Map<String, Entry> result = new TreeMap<>();
+		for (Map.Entry<String, String> e : log.materialize(map).entrySet()) {
+			int index = e.getKey().lastIndexOf('/');
+			if (index < 0) {
+				// REBUILDING_KEY
+				continue;
+			}
+			String appId = e.getKey().substring(0, index);
+			result.computeIfAbsent(appId, Entry::new).values.put(e.getKey().substring(index + 1), e.getValue());
+		}
+		return result;
+	}
+
+	/** The indexed values of one app db, or null if it isn't in the index. */
+	public Entry get(String appId) throws IOException {
+		return getEntries().get(appId);
+	}
+
+	/**
+	 * Records the changes made to an app db, ignoring any to keys that aren't
+	 * indexed. Called by DBMap holding the app db's lock.
+	 */
+	synchronized void update(String appId, Map<String, String> changes) throws IOException {
+		Map<String, String> indexChanges = new LinkedHashMap<>();
+		for (Map.Entry<String, String> e : changes.entrySet()) {
+			if (KEYS.contains(e.getKey())) {
+				indexChanges.put(appId + "/" + e.getKey(), e.getValue());
+			}
+		}
+		write(indexChanges);
+	}
+
+	/** Drops an app db from the index, once it has been deleted. */
+	public synchronized void remove(String appId) throws IOException {
+		Map<String, String> indexChanges = new LinkedHashMap<>();
+		for (String key : KEYS) {
+			indexChanges.put(appId + "/" + key, null);
+		}
+		write(indexChanges);
+	}
+
+	private void write(Map<String, String> indexChanges) throws IOException {
+		if (indexChanges.isEmpty() || !file.exists()) {
+			return;
+		}
+		log.getLock().lock();
+		try {
+			log.refresh(map);
+			if (!file.exists()) {
+				return;
+			}
+			map.putAll(indexChanges);
+			log.write(indexChanges, map);
+		} finally {
+			log.getLock().unlock();
+		}
+	}
+
+	/**
+	 * Reads every app db and writes the index from them. The app dbs are read
+	 * without holding this object's monitor or the index lock, as DBMap takes
+	 * them the other way round when it updates the index.
+	 */
+	private void rebuild() throws IOException {
+		long generation;
+		long position;
+		synchronized (this) {
+			log.getLock().lock();
+			try {
+				log.refresh(map);
+				if (!file.exists()) {
+					map.clear();
+					map.put(REBUILDING_KEY, Long.toString(System.currentTimeMillis()));
+					log.compact(map);
+				} else if (log.get(map, REBUILDING_KEY) == null) {
+					return;
+				}
+				generation = log.getGeneration();
+				position = log.getPosition();
+			} finally {
+				log.getLock().unlock();
+			}
+		}
+
+		while (true) {
+			Map<String, String> rebuilt = readAppDbs();
+			synchronized (this) {
+				log.getLock().lock();
+				try {
+					log.refresh(map);
+					if (!file.exists() || log.get(map, REBUILDING_KEY) == null) {
+						// Rebuilt by another thread or process in the meantime, or deleted
+						return;
+					}
+					if (log.getGeneration() == generation && log.getPosition() == position) {
+						map.clear();
+						map.putAll(rebuilt);
+						log.compact(map);
+						return;
+					}
+					// An app db changed while they were being read
+					generation = log.getGeneration();
+					position = log.getPosition();
+				} finally {
+					log.getLock().unlock();
+				}
+			}
+		}
+	}
+
+	private Map<String, String> readAppDbs() throws IOException {
+		Map<String, String> rebuilt = new HashMap<>();
+		File[] dbFiles = file.getParentFile().listFiles((dir, name) -> name.startsWith(DBMap.DBPREFIX));
+		if (dbFiles != null) {
+			for (File dbFile : dbFiles) {
+				String appId = dbFile.getName().substring(DBMap.DBPREFIX.length());
+				DBMap appDb = new DBMap(appId, idcBase);
+				for (String key : KEYS) {
+					String value = appDb.get(key);
+					if (value != null) {
+						rebuilt.put(appId + "/" + key, value);
+					}
+				}
+			}
+		}
+		return rebuilt;
+	}
+
+	/** The indexed values of one app db. */
+	public static class Entry {
+
+		private final String appId;
+
+		private final Map<String, String> values = new HashMap<>();
+
+		private Entry(String appId) {
+			this.appId = appId;
+		}
+
+		public String getAppId() {
+			return appId;
+		}
+
+		public String getAppDir() {
+			return values.get(Constants.DB_APP_DIR);
+		}
+
+		public String getLastContainerId() {
+			return values.get(Constants.DB_LAST_CONTAINER_ID);
+		}
+
+		public String getHelmRelease() {
+			return values.get(Constants.DB_HELM_RELEASE);
+		}
+
+		public String getImageName() {
+			return values.get(Constants.DB_CONTAINER_NAME);
+		}
+	}
+
+}
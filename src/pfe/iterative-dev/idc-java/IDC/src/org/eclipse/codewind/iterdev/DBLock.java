@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.iterdev;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An exclusive lock on one db file, held across threads in this process and
+ * across idc processes. There is one lock per db file so that writers to
+ * different dbs never wait for each other.
+ *
+ * The lock is taken on a separate .lock file next to the db, as the db file
+ * itself is replaced when it is compacted. The .lock file is never deleted,
+ * even with the db, so every process always locks the same file. Locking is
+ * reentrant within a thread.
+ */
+public class DBLock {
+
+	private static final ConcurrentHashMap<File, DBLock> LOCKS = new ConcurrentHashMap<>();
+
+	private final File lockFile;
+
+	private final ReentrantLock threadLock = new ReentrantLock();
+
+	private FileChannel channel;
+
+	private FileLock fileLock;
+
+	private DBLock(File dbFile) {
+		this.lockFile = new File(dbFile.getParentFile(), "." + dbFile.getName() + ".lock");
+	}
+
+	public static DBLock forFile(File dbFile) {
+		return LOCKS.computeIfAbsent(dbFile.getAbsoluteFile(), DBLock::new);
+	}
+
+	public void lock() throws IOException {
+		threadLock.lock();
+		if (threadLock.getHoldCount() > 1) {
+			return;
+		}
+		try {
+			File dir = lockFile.getParentFile();
+			if (!dir.exists()) {
+				dir.mkdirs();
+			}
+			channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			fileLock = channel.lock();
+		} catch (IOException | RuntimeException e) {
+			if (channel != null) {
+				channel.close();
+				channel = null;
+			}
+			threadLock.unlock();
+			throw e;
+		}
+	}
+
+	public void unlock() {
+		try {
+			if (threadLock.getHoldCount() == 1) {
+				try {
+					fileLock.release();
+					channel.close();
+				} catch (IOException e) {
+					// Closing the channel releases the lock regardless
+					Logger.error("Unable to release the lock on " + lockFile);
+				} finally {
+					fileLock = null;
+					channel = null;
+				}
+			}
+		} finally {
+			threadLock.unlock();
+		}
+	}
+
+}
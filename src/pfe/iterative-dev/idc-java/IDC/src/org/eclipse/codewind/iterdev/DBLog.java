@@ -0,0 +1,462 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.iterdev;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only storage for a DBMap. Each put or remove is one line appended to
+ * the db file, and the file is rewritten with just the live entries once the
+ * log has grown well past them.
+ *
+ * The file starts with a header line giving the format version, the file's
+ * generation, which changes each time the file is rewritten, and the length of
+ * the snapshot that follows. The snapshot holds the entries written when the
+ * file was last rewritten, see DBSnapshot; it is memory mapped rather than
+ * read, so loading a db only costs as much as the records after it. The
+ * records are appended as text lines,
+ *
+ * <pre>
+ * crc32 P key@#@value
+ * crc32 R key
+ * crc32 B count
+ * </pre>
+ *
+ * where crc32 is 8 hex digits over the rest of the line. A B record starts a
+ * batch, the count records after it that are only applied if all of them are
+ * there. Records are replayed in order when the file is loaded, stopping at
+ * the first one that is incomplete or doesn't match its checksum, as left by
+ * a write that was cut short.
+ *
+ * The map passed to the methods here holds the records replayed on top of the
+ * snapshot, removed keys having null values, and get() and materialize() give
+ * the db's contents from the two. Files in the original format, one
+ * key@#@value per line, or in the version 1 log format without a snapshot, are
+ * read into the map and rewritten in the current format on the first write.
+ * exportText() writes the original format.
+ *
+ * Several processes may have the same db open. Every write is made holding the
+ * db's DBLock and first catches up with anything other processes have written,
+ * so no one's changes are lost. The generation and the length of the file read
+ * so far identify the version of the db this process has seen.
+ */
+public class DBLog {
+
+	public static final String HEADER = "#idc-db-log";
+
+	public static final int VERSION = 2;
+
+	private static final String SEPARATOR = "@#@";
+
+	/** Compact once there are at least this many records... */
+	private static final int COMPACT_MIN_RECORDS = 64;
+
+	/** ... and this many times as many records as live entries. */
+	private static final int COMPACT_RATIO = 4;
+
+	private final File file;
+
+	private final DBLock lock;
+
+	private long generation = -1;
+
+	/** How much of the file has been replayed or written. */
+	private long position = 0;
+
+	private DBSnapshot snapshot = DBSnapshot.EMPTY;
+
+	/** The number of records after the snapshot. */
+	private int records = 0;
+
+	/** Set if the file is in the original format, has a bad record in it or has gone. */
+	private boolean needsRewrite = false;
+
+	public DBLog(File file) {
+		this.file = file;
+		this.lock = DBLock.forFile(file);
+	}
+
+	public DBLock getLock() {
+		return lock;
+	}
+
+	/** Replays the file into map. */
+	public void load(Map<String, String> map) throws IOException {
+		if (!file.exists()) {
+			// Don't create the db directory just to read nothing
+			forget(map);
+			return;
+		}
+		lock.lock();
+		try {
+			refresh(map);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Brings map up to date with the file, replaying only what has been appended
+	 * since it was last read unless the file has been rewritten. Must be called
+	 * holding the lock.
+	 */
+	public void refresh(Map<String, String> map) throws IOException {
+		if (!file.exists()) {
+			forget(map);
+			needsRewrite = true;
+			return;
+		}
+		try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+			long length = in.length();
+			byte[] header = readHeader(in);
+			if (header == null) {
+				byte[] contents = new byte[(int) length];
+				in.seek(0);
+				in.readFully(contents);
+				map.clear();
+				loadOriginalFormat(contents, map);
+				snapshot = DBSnapshot.EMPTY;
+				generation = -1;
+				position = length;
+				records = 0;
+				needsRewrite = true;
+				return;
+			}
+
+			long[] fields = parseHeader(header);
+			if (fields[1] != generation || length < position) {
+				// Rewritten since we last looked, start again
+				map.clear();
+				generation = fields[1];
+				snapshot = DBSnapshot.map(in.getChannel(), header.length, fields[2]);
+				position = header.length + fields[2];
+				records = 0;
+				// Version 1 files are all records, convert them to have a snapshot
+				needsRewrite = fields[0] != VERSION;
+			}
+			if (length > position) {
+				byte[] contents = new byte[(int) (length - position)];
+				in.seek(position);
+				in.readFully(contents);
+				position += replay(contents, map);
+			}
+		}
+	}
+
+	/**
+	 * Empties map and forgets what has been read, so that the next refresh
+	 * reads the whole file again, if there is one.
+	 */
+	void forget(Map<String, String> map) {
+		map.clear();
+		snapshot = DBSnapshot.EMPTY;
+		generation = -1;
+		position = 0;
+		records = 0;
+	}
+
+	/** Returns the header line including its newline, or null if the file doesn't start with one. */
+	private static byte[] readHeader(RandomAccessFile in) throws IOException {
+		byte[] prefix = (HEADER + " ").getBytes(StandardCharsets.UTF_8);
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		in.seek(0);
+		int b;
+		while ((b = in.read()) != -1) {
+			header.write(b);
+			if (b == '\n' || header.size() > prefix.length + 64) {
+				break;
+			}
+		}
+		byte[] bytes = header.toByteArray();
+		if (bytes.length <= prefix.length || bytes[bytes.length - 1] != '\n') {
+			return null;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			if (bytes[i] != prefix[i]) {
+				return null;
+			}
+		}
+		return bytes;
+	}
+
+	/** Returns the version, generation and snapshot length from the header, any that are missing being 0. */
+	private static long[] parseHeader(byte[] header) throws IOException {
+		String[] words = new String(header, StandardCharsets.UTF_8).trim().split(" ");
+		long[] fields = new long[3];
+		try {
+			for (int i = 0; i < fields.length && i + 1 < words.length; i++) {
+				fields[i] = Long.parseLong(words[i + 1]);
+			}
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid db header: " + new String(header, StandardCharsets.UTF_8).trim());
+		}
+		if (fields[0] > VERSION) {
+			throw new IOException("Unsupported db version " + fields[0]);
+		}
+		return fields;
+	}
+
+	/** Applies the complete records in contents to map and returns how many bytes they took up. */
+	private int replay(byte[] contents, Map<String, String> map) {
+		int pos = 0;
+		int applied = 0;
+		List<String> batch = null;
+		int batchRemaining = 0;
+		while (pos < contents.length) {
+			int end = pos;
+			while (end < contents.length && contents[end] != '\n') {
+				end++;
+			}
+			String record = end < contents.length ? verify(new String(contents, pos, end - pos, StandardCharsets.UTF_8)) : null;
+			if (record == null || (batch != null && record.charAt(0) == 'B')) {
+				// A record that wasn't completely written, ignore it and anything after.
+				needsRewrite = true;
+				break;
+			}
+			if (record.charAt(0) == 'B') {
+				batch = new ArrayList<>();
+				batchRemaining = Integer.parseInt(record.substring(1));
+			} else if (batch != null) {
+				batch.add(record);
+				batchRemaining--;
+			} else {
+				apply(record, map);
+			}
+			records++;
+			pos = end + 1;
+			if (batch != null && batchRemaining == 0) {
+				for (String r : batch) {
+					apply(r, map);
+				}
+				batch = null;
+			}
+			if (batch == null) {
+				applied = pos;
+			}
+		}
+		if (batch != null) {
+			// The end of a batch is missing, none of it is applied.
+			needsRewrite = true;
+		}
+		return applied;
+	}
+
+	private static void loadOriginalFormat(byte[] contents, Map<String, String> map) throws IOException {
+		BufferedReader br = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(contents)));
+		String str;
+		while (null != (str = br.readLine())) {
+			int index = str.indexOf(SEPARATOR);
+			if (index == -1) {
+				continue;
+			}
+			String value = str.substring(index + 3).trim();
+			if (value.equals("null")) {
+				value = null;
+			}
+			map.put(str.substring(0, index), value);
+		}
+	}
+
+	/** Returns the record in line if its checksum and contents are good, otherwise null. */
+	private static String verify(String line) {
+		if (line.length() < 10 || line.charAt(8) != ' ') {
+			return null;
+		}
+		String record = line.substring(9);
+		long crc;
+		try {
+			crc = Long.parseLong(line.substring(0, 8), 16);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		if (crc != checksum(record)) {
+			return null;
+		}
+		switch (record.charAt(0)) {
+		case 'P':
+			return record.indexOf(SEPARATOR) != -1 ? record : null;
+		case 'R':
+			return record;
+		case 'B':
+			try {
+				return Integer.parseInt(record.substring(1)) > 0 ? record : null;
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		default:
+			return null;
+		}
+	}
+
+	private static void apply(String record, Map<String, String> map) {
+		if (record.charAt(0) == 'P') {
+			int index = record.indexOf(SEPARATOR);
+			map.put(record.substring(1, index), record.substring(index + 3));
+		} else {
+			map.put(record.substring(1), null);
+		}
+	}
+
+	/** Looks up a key, in map and then in the snapshot. */
+	public String get(Map<String, String> map, String key) {
+		if (map.containsKey(key)) {
+			return map.get(key);
+		}
+		return snapshot.get(key);
+	}
+
+	/** Returns the db's contents, decoding the whole snapshot. */
+	public Map<String, String> materialize(Map<String, String> map) {
+		Map<String, String> result = new HashMap<>();
+		snapshot.forEach(result::put);
+		for (Map.Entry<String, String> e : map.entrySet()) {
+			if (e.getValue() == null) {
+				result.remove(e.getKey());
+			} else {
+				result.put(e.getKey(), e.getValue());
+			}
+		}
+		return result;
+	}
+
+	/** Writes the db's contents to file in the original text format, which is read back in if file replaces the db. */
+	public void exportText(Map<String, String> map, File file) throws IOException {
+		StringBuilder contents = new StringBuilder();
+		for (Map.Entry<String, String> e : new TreeMap<>(materialize(map)).entrySet()) {
+			contents.append(e.getKey()).append(SEPARATOR).append(e.getValue()).append("\n");
+		}
+		Files.write(file.toPath(), contents.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/** The generation of the file as last read or written. */
+	public long getGeneration() {
+		return generation;
+	}
+
+	/** How much of the file has been read or written. */
+	public long getPosition() {
+		return position;
+	}
+
+	/**
+	 * Records a set of changes, null values being removes, in one append so
+	 * that either all or none of them are seen when the file is next loaded.
+	 * map must already have the changes applied, as the whole db is written out
+	 * instead if the file is due to be compacted. Must be called holding the
+	 * lock, after refresh.
+	 */
+	public void write(Map<String, String> changes, Map<String, String> map) throws IOException {
+		if (changes.isEmpty()) {
+			return;
+		}
+		if (needsRewrite || !file.exists()
+				|| (records >= COMPACT_MIN_RECORDS && records >= COMPACT_RATIO * (snapshot.size() + map.size()))) {
+			compact(map);
+			return;
+		}
+		StringBuilder lines = new StringBuilder();
+		if (changes.size() > 1) {
+			lines.append(record("B" + changes.size()));
+		}
+		for (Map.Entry<String, String> e : changes.entrySet()) {
+			lines.append(record(e.getKey(), e.getValue()));
+		}
+		byte[] bytes = lines.toString().getBytes(StandardCharsets.UTF_8);
+		try (FileOutputStream out = new FileOutputStream(file, true)) {
+			out.write(bytes);
+		}
+		records += changes.size() > 1 ? changes.size() + 1 : 1;
+		position += bytes.length;
+	}
+
+	public void write(String key, String value, Map<String, String> map) throws IOException {
+		write(Collections.singletonMap(key, value), map);
+	}
+
+	/**
+	 * Rewrites the file as a snapshot of the db with no records after it. map
+	 * is left holding the whole db, as the old snapshot is no longer the file's.
+	 * Must be called holding the lock.
+	 */
+	public void compact(Map<String, String> map) throws IOException {
+		File dir = file.getParentFile();
+		if (!dir.exists()) {
+			dir.mkdirs();
+		}
+
+		// A new generation tells other processes to reload rather than read on from where they were
+		long newGeneration = Math.max(generation + 1, System.currentTimeMillis());
+		Map<String, String> entries = materialize(map);
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		int snapshotLength = DBSnapshot.write(entries, body);
+		ByteArrayOutputStream contents = new ByteArrayOutputStream();
+		contents.write((HEADER + " " + VERSION + " " + newGeneration + " " + snapshotLength + "\n")
+				.getBytes(StandardCharsets.UTF_8));
+		body.writeTo(contents);
+
+		// Written to a temporary file and moved into place so a crash part way
+		// through leaves the old file. The name doesn't start with DBMap.DBPREFIX
+		// so it's never taken for a db.
+		File temp = new File(dir, "." + file.getName() + ".tmp");
+		try (FileOutputStream out = new FileOutputStream(temp)) {
+			contents.writeTo(out);
+			out.getFD().sync();
+		}
+		try {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+
+		map.clear();
+		map.putAll(entries);
+		snapshot = DBSnapshot.EMPTY;
+		generation = newGeneration;
+		position = contents.size();
+		records = 0;
+		needsRewrite = false;
+	}
+
+	private static String record(String key, String value) {
+		return record(value != null ? "P" + key + SEPARATOR + value : "R" + key);
+	}
+
+	private static String record(String record) {
+		return String.format("%08x ", checksum(record)) + record + "\n";
+	}
+
+	private static long checksum(String record) {
+		CRC32 crc = new CRC32();
+		crc.update(record.getBytes(StandardCharsets.UTF_8));
+		return crc.getValue();
+	}
+
+}
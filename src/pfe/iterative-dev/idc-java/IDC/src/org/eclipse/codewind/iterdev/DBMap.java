@@ -12,50 +12,73 @@
 
 package org.eclipse.codewind.iterdev;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 
-/** Simple key-value store; this class is not thread safe.  */
+/**
+ * Simple key-value store. Changes are appended to the db file, see DBLog.
+ *
+ * Instances are thread safe, and several processes can have the same db open:
+ * each write is made holding the db's DBLock after reading in anything other
+ * processes have written since, so no changes are lost. Reads return what was
+ * last loaded, call refresh() to pick up other processes' changes.
+ *
+ * Writes to the keys in DBIndex.KEYS are also recorded in the DBIndex.
+ */
 public class DBMap {
 
 	public static final String DBPREFIX = "db-";
 	
+	private static final ConcurrentHashMap<File, DBMap> OPEN = new ConcurrentHashMap<>();
+	
 	private final File file;
 	
+	/** Changes since the snapshot in the db file, see DBLog. */
 	private final Map<String, String> map = new HashMap<>();
 	
 	private final String id;
 	
+	private final DBLog log;
+	
+	private final DBIndex index;
+	
 	public DBMap(String id, File idcBase) throws IOException {
 		this.id = id;
+		this.index = DBIndex.forBase(idcBase);
 		
 		File dir = new File(idcBase, "db");
 		
 		file = new File(dir, DBPREFIX+id);
 		
-		if(file.exists()) {
-			
-			BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file)));
-			String str;
-			while(null != (str = br.readLine())) {
-				
-				int index = str.indexOf("@#@");
-				String value = str.substring(index+3).trim();
-				if(value.equals("null")) { value = null; }
-				
-				map.put(str.substring(0, index), value);
-			}
-			br.close();
-			
+		log = new DBLog(file);
+		log.load(map);
+	}
+	
+	/**
+	 * Returns the db with this id, reusing the instance from an earlier call if
+	 * there was one and bringing it up to date with the file. A daemon running
+	 * many commands only loads each db once.
+	 */
+	public static DBMap open(String id, File idcBase) throws IOException {
+		File file = new File(new File(idcBase, "db"), DBPREFIX+id).getAbsoluteFile();
+		DBMap db = OPEN.get(file);
+		if(db != null) {
+			db.refresh();
+			return db;
+		}
+		db = new DBMap(id, idcBase);
+		DBMap existing = OPEN.putIfAbsent(file, db);
+		if(existing != null) {
+			existing.refresh();
+			return existing;
 		}
+		return db;
 	}
 	
 	
@@ -63,46 +86,138 @@ public class DBMap {
 		return id;
 	}
 
-	public String get(String key) {
-		return map.get(key);
+	public synchronized String get(String key) {
+		return log.get(map, key);
 	}
 	
-	public Map<String, String> getMap() {
-		return Collections.unmodifiableMap(map);
+	/** A copy of the db as it was last loaded. */
+	public synchronized Map<String, String> getMap() {
+		return Collections.unmodifiableMap(log.materialize(map));
 	}
 	
-	public void remove(String key) {
-		map.remove(key);
-		
+	/** Writes the db in the original text format, one key@#@value per line. */
+	public synchronized void export(File file) throws IOException {
+		log.exportText(map, file);
+	}
+	
+	/** Reads in changes other processes have made to the db. */
+	public synchronized void refresh() {
 		try {
-			writeMap();
+			log.load(map);
 		} catch (IOException e) {
 			e.printStackTrace();
-		}		
+		}
+	}
+	
+	public void remove(String key) {
+		write(Collections.singletonMap(key, null));
 	}
 	
 	public void put(String key, String value) {
-		map.put(key, value);
+		write(Collections.singletonMap(key, value));
+	}
+	
+	private synchronized void write(Map<String, String> changes) {
 		try {
-			writeMap();
+			log.getLock().lock();
+			try {
+				log.refresh(map);
+				apply(changes);
+				log.write(changes, map);
+				index.update(id, changes);
+			} finally {
+				log.getLock().unlock();
+			}
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
 	
-	private void writeMap() throws IOException {
-		if(!file.getParentFile().exists())
-			file.getParentFile().mkdirs();
-		FileWriter fw = new FileWriter(file);
+	private void apply(Map<String, String> changes) {
+		// Removed keys are kept with null values, to hide them in the snapshot
+		map.putAll(changes);
+	}
+	
+	/**
+	 * Starts a group of changes that are written together when committed. The
+	 * db is refreshed first, so getMap() returns the version the transaction
+	 * is based on.
+	 */
+	public synchronized Transaction begin() {
+		refresh();
+		return new Transaction(log.getGeneration(), log.getPosition());
+	}
+	
+	/**
+	 * Puts and removes that are held back until commit(), then written to the
+	 * db file in one go so that after a crash either all of them or none of them
+	 * are there. get() and getMap() don't see the changes until they are
+	 * committed.
+	 */
+	public class Transaction {
+		
+		private final Map<String, String> changes = new LinkedHashMap<>();
+		
+		private final long generation;
+		
+		private final long position;
 		
-		for(Map.Entry<String, String> e : map.entrySet()) {
-			
-			// Null values should not be written to the file, rather than being written as nulls
-			if(e.getValue() == null) { continue; }
-			
-			fw.write(e.getKey()+"@#@"+e.getValue()+"\n");
+		private Transaction(long generation, long position) {
+			this.generation = generation;
+			this.position = position;
+		}
+		
+		/** A null value removes the key. */
+		public Transaction put(String key, String value) {
+			changes.put(key, value);
+			return this;
+		}
+		
+		public Transaction remove(String key) {
+			changes.put(key, null);
+			return this;
+		}
+		
+		/** Writes the changes on top of whatever is in the db now. */
+		public void commit() {
+			write(changes);
+			changes.clear();
+		}
+		
+		/**
+		 * Writes the changes only if nothing has been written to the db, by this
+		 * or any other process, since begin(). Returns false, discarding the
+		 * changes, if it has; the caller should begin again and redo whatever
+		 * checks the changes were based on. Throws IOException, also discarding
+		 * the changes, if they can't be written.
+		 */
+		public boolean commitIfUnchanged() throws IOException {
+			synchronized(DBMap.this) {
+				try {
+					log.getLock().lock();
+					try {
+						log.refresh(map);
+						if(log.getGeneration() != generation || log.getPosition() != position) {
+							return false;
+						}
+						apply(changes);
+						try {
+							log.write(changes, map);
+						} catch (IOException e) {
+							// Drop the changes applied in memory, the db is read from the file again next time
+							log.forget(map);
+							throw e;
+						}
+						index.update(id, changes);
+					} finally {
+						log.getLock().unlock();
+					}
+				} finally {
+					changes.clear();
+				}
+				return true;
+			}
 		}
-		fw.close();
 	}
 	
 }
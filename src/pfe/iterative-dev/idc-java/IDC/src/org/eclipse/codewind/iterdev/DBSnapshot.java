@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.iterdev;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * The entries of a db as of its last compaction, in a binary form that is
+ * memory mapped and only decoded a key at a time as they are looked up. The
+ * layout, all ints big endian, is
+ *
+ * <pre>
+ * int count
+ * int[count] key hash codes, in ascending order
+ * int[count] offset of each entry from the start of the snapshot
+ * entries: int key length, key bytes, int value length, value bytes
+ * </pre>
+ *
+ * where keys and values are UTF-8. A lookup is a binary search over the hash
+ * codes followed by a byte comparison of the keys with that hash code.
+ */
+public class DBSnapshot {
+
+	public static final DBSnapshot EMPTY = new DBSnapshot(null, 0);
+
+	private final ByteBuffer buffer;
+
+	private final int size;
+
+	private DBSnapshot(ByteBuffer buffer, int size) {
+		this.buffer = buffer;
+		this.size = size;
+	}
+
+	/** Maps the snapshot at offset in the file, which must not be written to while it is mapped. */
+	public static DBSnapshot map(FileChannel channel, long offset, long length) throws IOException {
+		if (length == 0) {
+			return EMPTY;
+		}
+		ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+		int size = buffer.getInt(0);
+		if (size < 0 || 4 + 8L * size > length) {
+			throw new IOException("Corrupt db snapshot, " + size + " entries in " + length + " bytes");
+		}
+		return new DBSnapshot(buffer, size);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public String get(String key) {
+		if (size == 0) {
+			return null;
+		}
+		int hash = key.hashCode();
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (hashAt(mid) < hash) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		byte[] keyBytes = null;
+		for (int i = low; i < size && hashAt(i) == hash; i++) {
+			if (keyBytes == null) {
+				keyBytes = key.getBytes(StandardCharsets.UTF_8);
+			}
+			int entry = offsetAt(i);
+			if (keyEquals(entry, keyBytes)) {
+				return decode(entry + 4 + keyBytes.length);
+			}
+		}
+		return null;
+	}
+
+	/** Decodes every entry. */
+	public void forEach(BiConsumer<String, String> action) {
+		for (int i = 0; i < size; i++) {
+			int entry = offsetAt(i);
+			String key = decode(entry);
+			action.accept(key, decode(entry + 4 + buffer.getInt(entry)));
+		}
+	}
+
+	private int hashAt(int i) {
+		return buffer.getInt(4 + 4 * i);
+	}
+
+	private int offsetAt(int i) {
+		return buffer.getInt(4 + 4 * size + 4 * i);
+	}
+
+	private boolean keyEquals(int entry, byte[] keyBytes) {
+		if (buffer.getInt(entry) != keyBytes.length) {
+			return false;
+		}
+		for (int i = 0; i < keyBytes.length; i++) {
+			if (buffer.get(entry + 4 + i) != keyBytes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** Decodes the length prefixed string at offset. */
+	private String decode(int offset) {
+		byte[] bytes = new byte[buffer.getInt(offset)];
+		ByteBuffer view = buffer.duplicate();
+		view.position(offset + 4);
+		view.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/** Writes the non null entries of map as a snapshot and returns its length. */
+	public static int write(Map<String, String> map, ByteArrayOutputStream out) throws IOException {
+		List<Map.Entry<String, String>> entries = new ArrayList<>();
+		for (Map.Entry<String, String> e : map.entrySet()) {
+			if (e.getValue() != null) {
+				entries.add(e);
+			}
+		}
+		entries.sort((a, b) -> Integer.compare(a.getKey().hashCode(), b.getKey().hashCode()));
+
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		DataOutputStream dataOut = new DataOutputStream(data);
+		int[] offsets = new int[entries.size()];
+		int start = 4 + 8 * entries.size();
+		for (int i = 0; i < entries.size(); i++) {
+			offsets[i] = start + dataOut.size();
+			byte[] key = entries.get(i).getKey().getBytes(StandardCharsets.UTF_8);
+			byte[] value = entries.get(i).getValue().getBytes(StandardCharsets.UTF_8);
+			dataOut.writeInt(key.length);
+			dataOut.write(key);
+			dataOut.writeInt(value.length);
+			dataOut.write(value);
+		}
+
+		DataOutputStream snapshot = new DataOutputStream(out);
+		snapshot.writeInt(entries.size());
+		for (Map.Entry<String, String> e : entries) {
+			snapshot.writeInt(e.getKey().hashCode());
+		}
+		for (int offset : offsets) {
+			snapshot.writeInt(offset);
+		}
+		data.writeTo(snapshot);
+		snapshot.flush();
+		return start + data.size();
+	}
+
+}
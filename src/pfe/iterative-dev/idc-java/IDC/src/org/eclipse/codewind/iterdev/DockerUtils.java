@@ -22,11 +22,16 @@ import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.eclipse.codewind.iterdev.tasks.TaskUtils;
 
 public class DockerUtils {
 
+	/** App directory to the stamp of its Dockerfiles and their hash. */
+	private static final Map<String, String[]> dockerfileHashes = new ConcurrentHashMap<>();
+
     public static boolean checkForContainerImage(IDCContext context) throws InterruptedException, IOException {
 		boolean isPresent = false;
 
@@ -36,7 +41,7 @@ public class DockerUtils {
 		ProcessRunner pr = TaskUtils.runCmd(imageCommand + " images --format " + imagesFormatString, context, false);
 
 		Thread.sleep(1000);
-		for (String str : pr.getReceived().split("\\r?\\n")) {
+		for (String str : pr.getReceivedLines()) {
 			if (str != null && str.contains(context.getImageName())) {
 				isPresent = true;
 				Logger.info("----");
@@ -56,7 +61,7 @@ public class DockerUtils {
 
 		ProcessRunner pr = TaskUtils.runCmd("docker ps --no-trunc -q", context, false);
 
-		for (String str : pr.getReceived().split("\\r?\\n")) {
+		for (String str : pr.getReceivedLines()) {
 
 			if (str.startsWith("CONTAINER ID")) {
 				continue;
@@ -166,8 +171,21 @@ public class DockerUtils {
 			userAppDockerFiles.add(new File(context.getAppDirectory(), dockerfile));
 		}
 
+		// A daemon only rehashes the files when one of them has changed
+		StringBuilder stamp = new StringBuilder();
+		for (File f : userAppDockerFiles) {
+			stamp.append(f.getPath()).append(':').append(f.lastModified()).append(':').append(f.length()).append(';');
+		}
+		String[] cached = dockerfileHashes.get(context.getAppDirectory().getPath());
+		if (cached != null && cached[0].equals(stamp.toString())) {
+			return cached[1];
+		}
+
 		hash = IDCUtils
 				.calculateHashOfOrderedFileContents(userAppDockerFiles.toArray(new File[userAppDockerFiles.size()]));
+		if (hash != null) {
+			dockerfileHashes.put(context.getAppDirectory().getPath(), new String[] { stamp.toString(), hash });
+		}
 		return hash;
 	}
 
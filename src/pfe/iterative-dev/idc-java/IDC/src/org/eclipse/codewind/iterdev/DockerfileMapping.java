@@ -81,7 +81,7 @@ public class DockerfileMapping {
 		if (missingDockerfileCounter > 0) {
 			// send the exit code of the build
 			Logger.info("Exiting out of docker file composition with exit code 8");
-            System.exit(ErrorCode.missingDockerfile.ordinal());
+            throw new IDCExitException(ErrorCode.missingDockerfile);
 		}
 		
 		return dockerfileComposition;
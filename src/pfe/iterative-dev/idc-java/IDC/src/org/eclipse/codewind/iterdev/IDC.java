@@ -31,36 +31,52 @@ import org.eclipse.codewind.iterdev.tasks.TaskUtils;
 
 public class IDC {
 
-	private static String HOST_OS = System.getProperty(Constants.HOST_OS, "");
-	private static String LOCAL_IDC_OS = System.getProperty(Constants.LOCAL_IDC_OS, "");
-	private static String WIN_IDC_PATH = System.getProperty(Constants.WIN_IDC_PATH, "");
-	private static String CONTAINER_NAME = System.getProperty(Constants.CONTAINER_NAME, null);
-	private static String LOG_NAME = System.getProperty(Constants.LOG_NAME, null);
-	private static String PROJECT_ID = System.getProperty(Constants.PROJECT_ID, null);
-	private static String LOCAL_WORKSPACE_ORIGIN = System.getProperty(Constants.LOCAL_WORKSPACE_ORIGIN, null);
-	private static String IMAGE_PUSH_REGISTRY = System.getProperty(Constants.IMAGE_PUSH_REGISTRY, null);
-	private static String START_MODE = System.getProperty(Constants.START_MODE, null);
-	private static String DEBUG_PORT = System.getProperty(Constants.DEBUG_PORT, null);
-	private static ArrayList<String> PORT_MAPPINGS = new ArrayList<String>();
-
-	private static String rootPassword = null;
+	private String HOST_OS = System.getProperty(Constants.HOST_OS, "");
+	private String LOCAL_IDC_OS = System.getProperty(Constants.LOCAL_IDC_OS, "");
+	private String WIN_IDC_PATH = System.getProperty(Constants.WIN_IDC_PATH, "");
+	private String CONTAINER_NAME = System.getProperty(Constants.CONTAINER_NAME, null);
+	private String LOG_NAME = System.getProperty(Constants.LOG_NAME, null);
+	private String PROJECT_ID = System.getProperty(Constants.PROJECT_ID, null);
+	private String LOCAL_WORKSPACE_ORIGIN = System.getProperty(Constants.LOCAL_WORKSPACE_ORIGIN, null);
+	private String IMAGE_PUSH_REGISTRY = System.getProperty(Constants.IMAGE_PUSH_REGISTRY, null);
+	private String START_MODE = System.getProperty(Constants.START_MODE, null);
+	private String DEBUG_PORT = System.getProperty(Constants.DEBUG_PORT, null);
+	private ArrayList<String> PORT_MAPPINGS = new ArrayList<String>();
+
+	private String rootPassword = null;
 
 	public static void main(String[] args) throws IOException, InterruptedException {
 
+		// Stay running and take commands from idc clients, see IDCDaemon
+		if (args.length >= 1 && args[0].equalsIgnoreCase(Constants.OPTION_DAEMON)) {
+			IDCDaemon.run();
+			return;
+		}
+
+		int returnCode = new IDC().run(args, new File(System.getProperty("user.dir")));
+		if (returnCode != 0) {
+			System.exit(returnCode);
+		}
+	}
+
+	/** Runs one idc command for the application in appDirectory and returns the exit code. */
+	public int run(String[] args, File appDirectory) throws IOException, InterruptedException {
+
 		int returnCode = 0;
+		Metrics.Span commandSpan = null;
 
 		try {
 
 			if (args.length < 1 || args[0].equalsIgnoreCase(Constants.OPTION_HELP)) {
 				Logger.printUsage();
-				System.exit(ErrorCode.unexpectedError.ordinal());
+				return ErrorCode.unexpectedError.ordinal();
 			}
 
 			// If the 'appid' param is used, print the sha1 sum of the current dir and exit.
 			// This is a hidden command that is only used by 'docker shell' in idc.sh.
 			if (args.length >= 1 && args[0].equalsIgnoreCase("appid")) {
-				Logger.info(DigestUtils.sha1Hex(System.getProperty("user.dir").getBytes()));
-				return;
+				Logger.info(DigestUtils.sha1Hex(appDirectory.getPath().getBytes()));
+				return 0;
 			}
 
 			String cmd = args[0];
@@ -156,7 +172,7 @@ public class IDC {
 			if (!IDCUtils.isValidCommmand(cmd, Constants.VALID_COMMANDS)) {
 				Logger.error("'idc " + cmd +"' is not a valid command.");
 				Logger.printUsage();
-				return;
+				return 0;
 			}
 
 			// Initialize password if required
@@ -177,7 +193,8 @@ public class IDC {
 			// }
 
 			// Create the application context object -- this object contains (mostly) immutable values which are commonly used to implement command functionality across IDC  
-			IDCContext context = new IDCContext(rootPassword, LOCAL_WORKSPACE_ORIGIN, CONTAINER_NAME, PROJECT_ID, LOG_NAME, IMAGE_PUSH_REGISTRY, START_MODE, DEBUG_PORT, PORT_MAPPINGS);
+			IDCContext context = new IDCContext(appDirectory, rootPassword, LOCAL_WORKSPACE_ORIGIN, CONTAINER_NAME, PROJECT_ID, LOG_NAME, IMAGE_PUSH_REGISTRY, START_MODE, DEBUG_PORT, PORT_MAPPINGS);
+			commandSpan = Metrics.span(context, "idc " + cmd.toLowerCase());
 			// Set up IDC options and exit. Should not attempt to build/run container.
 			if (cmd.equalsIgnoreCase(Constants.OPTION_SET)) {
 				if (HOST_OS.contains("windows")) {
@@ -190,7 +207,7 @@ public class IDC {
 					if (file.exists() && !file.delete()) {
 						Logger.error("Failed to remove the old artifacts.tar.gz from /file-watcher/idc/artifacts before re-archiving");
 					}
-					ProcessRunner pr = TaskUtils.runCmd("tar czf /file-watcher/idc/artifacts.tar.gz -C /file-watcher/idc/artifacts .", context, true);
+					ProcessRunner pr = TaskUtils.runCmd("tar czf /file-watcher/idc/artifacts.tar.gz --exclude=.idc-daemon -C /file-watcher/idc/artifacts .", context, true);
 					Logger.info("Archiving /file-watcher/idc/artifacts dir: " + pr.getReceived());
 					pr = TaskUtils.runCmd("mv /file-watcher/idc/artifacts.tar.gz /file-watcher/idc/artifacts/artifacts.tar.gz", context, true);
 					Logger.info("Moving artifacts.tar.gz to /file-watcher/idc/artifacts " + pr.getReceived());
@@ -199,18 +216,18 @@ public class IDC {
 					Logger.info("Re-archived /file-watcher/idc/artifacts dir");
 				}
 				Logger.info("IDC options set.");
-				return;
+				return 0;
 			}
 			
 			// Switch to dev/prod and exit. Should not attempt to build/run container.
 			if (Constants.MODE.dev.name().equals(cmd.toLowerCase())) {
 				SwitchModeTask.execute(context, Constants.MODE.dev);
-				return;
+				return 0;
 			}
 
 			if (Constants.MODE.prod.name().equals(cmd.toLowerCase())) {
 				SwitchModeTask.execute(context, Constants.MODE.prod);
-				return;
+				return 0;
 			}
 			
 			// Handle idc commands
@@ -218,7 +235,7 @@ public class IDC {
 				boolean success = ContainerCleanTask.execute(context);
 				if(!success)
 					returnCode = ErrorCode.containerCleanupFailed.ordinal();
-				System.exit(returnCode);
+				return returnCode;
 			}
 			
 			if (cmd.equalsIgnoreCase(Constants.OPTION_CONTAINER_REMOVE)) {
@@ -232,7 +249,7 @@ public class IDC {
 					ContainerRemoveTask.deleteCorrespondingIDCContents(context.getIDCBase(), appID);
 				}
 
-				System.exit(returnCode);
+				return returnCode;
 			}
 
 			DBMap appDb = context.getAppDb();
@@ -254,17 +271,19 @@ public class IDC {
 			if (cmd.equalsIgnoreCase(Constants.OPTION_STATUS_TRACKER)) {
 				if (!isContainerBuilt) {
 					Logger.error("Container " + context.getContainerName() + " is not running.");
-					return;
+					return 0;
 				}
 
 				Logger.info("Starting the status tracker");
 
 				ProcessRunner runner = TaskUtils.createRunnerForCmd(curRunCmd + " /home/default/artifacts/status_tracker.sh",
 						context, false);
+				// It runs until the server stops, only the listener needs its output
+				runner.setCapture(OutputCapture.none());
 				StatusTracker tracker = new StatusTracker(context, runner);
 				tracker.start();
 				
-				return;
+				return 0;
 			}
 
 			boolean containerBuildRequired = false;
@@ -272,7 +291,7 @@ public class IDC {
 			File appDir = context.getAppDirectory();
 			if (!(new File(appDir, "pom.xml").exists())) {
 				Logger.error("A pom.xml file is required in this directory, in order to start the container.");
-				return;
+				return 0;
 			}
 
 			if (appDb.get(Constants.DB_VERSION) == null) {
@@ -329,7 +348,8 @@ public class IDC {
 					String chartDir = appDir.getAbsolutePath() + "/chart";
 					String calchHashCmd = "find " + chartDir + " -type f -name \"*.yaml\" -exec sha256sum {} + | awk '{print $1}' | sort | sha256sum";
 					ProcessRunner pr = TaskUtils.runCmd(calchHashCmd, context, false);
-					String hashOfChartDir = pr.getReceived().split("\\r?\\n")[0];
+					List<String> hashLines = pr.getReceivedLines();
+					String hashOfChartDir = hashLines.isEmpty() ? null : hashLines.get(0);
 					String expectedHashofChartDir = appDb.get(Constants.DB_CHARTDIR_HASH);
 				
 					// Only flag image build required if previous hash exists (i.e. not first time idc being run), 
@@ -354,18 +374,20 @@ public class IDC {
 				if (cmd.equalsIgnoreCase(Constants.OPTION_BUILD)) {
 					Logger.info("* Container build is required.");
 					containerBuildRequired = true;
-					// Update hash
+					// Update hashes
+					DBMap.Transaction dbChanges = appDb.begin();
 					if (hashOfAppMasterDockerFiles != null) {
-						appDb.put(Constants.DB_MASTER_DOCKER_FILE_HASH, hashOfAppMasterDockerFiles);
+						dbChanges.put(Constants.DB_MASTER_DOCKER_FILE_HASH, hashOfAppMasterDockerFiles);
 					}
 					String curNewPomUpdateHash = FileMonitor.getNewPomUpdateHash(appDb, appDir.getAbsolutePath());
 					if (curNewPomUpdateHash != null) {
-						appDb.put(FileMonitor.POMCHANGE_HASH, curNewPomUpdateHash);
+						dbChanges.put(FileMonitor.POMCHANGE_HASH, curNewPomUpdateHash);
 					}
 					String curNewConfigUpdateHash = FileMonitor.getNewConfigUpdateHash(appDb, appDir.getAbsolutePath());
 					if (curNewConfigUpdateHash != null) {
-						appDb.put(FileMonitor.CONFIGUPDATE_HASH, curNewConfigUpdateHash);
+						dbChanges.put(FileMonitor.CONFIGUPDATE_HASH, curNewConfigUpdateHash);
 					}
+					dbChanges.commit();
 				}
 			}
 
@@ -375,14 +397,14 @@ public class IDC {
 
 				if (!appDockerBase.exists() && !appDockerBase.mkdirs()) {
 					Logger.error("Error creating docker database dir: " + appDockerBase.getPath());
-					return;
+					return 0;
 				}
 
 				boolean result = ContainerBuildTask.execute(context);
 
 				if (!result) {
 					Logger.error(ErrorCode.containerBuildFailed.message());
-					System.exit(ErrorCode.containerBuildFailed.ordinal());
+					return ErrorCode.containerBuildFailed.ordinal();
 				}
 
 				isContainerBuilt = true;
@@ -452,10 +474,10 @@ public class IDC {
 				String id = ContainerRunTask.execute(context);
 				if (id == null) {
 					Logger.error(ErrorCode.containerStartFailed.message());
-					System.exit(ErrorCode.containerStartFailed.ordinal());
+					return ErrorCode.containerStartFailed.ordinal();
 				} else if(id == "registryError") {
 					Logger.error(ErrorCode.invalidImagePushRegistry.message());
-					System.exit(ErrorCode.invalidImagePushRegistry.ordinal());
+					return ErrorCode.invalidImagePushRegistry.ordinal();
 				}
 			}
 			
@@ -470,7 +492,7 @@ public class IDC {
 			
 			if (cmd.equalsIgnoreCase(Constants.OPTION_CONTAINER_REFRESH)) {
 				ContainerRefreshTask.execute(context);
-				return;
+				return 0;
 			}
 
 			else if (cmd.equalsIgnoreCase(Constants.OPTION_BUILD)) {
@@ -478,7 +500,7 @@ public class IDC {
 				
 				if (!result) {
 					Logger.error(ErrorCode.applicationBuildFailed.message());
-					System.exit(ErrorCode.applicationBuildFailed.ordinal());
+					return ErrorCode.applicationBuildFailed.ordinal();
 				}
 
 				// Container and application builds are complete now
@@ -490,24 +512,24 @@ public class IDC {
 				 */
 				startServer(context, curRunCmd, appDb);
 				
-				return;
+				return 0;
 			}
 
 			else if (cmd.equalsIgnoreCase(Constants.OPTION_SHELL)) {
 				Logger.error("Not currently supported.");
-				return;
+				return 0;
 			}
 			
 			else if (cmd.equalsIgnoreCase(Constants.OPTION_START)) {
 				startServer(context, curRunCmd, appDb);
-				return;
+				return 0;
 			}
 
 			else if (cmd.equalsIgnoreCase(Constants.OPTION_STOP)) {
 
 				if (!isContainerBuilt) {
 					Logger.info("Container " + context.getContainerName() + " is not running.");
-					return;
+					return 0;
 				}
 
 				StatusTracker.updateProjectState(context, "app", "stopping", null, null);
@@ -515,26 +537,26 @@ public class IDC {
 				TaskUtils.runCmd(curRunCmd + " /home/default/artifacts/stop_server.sh",
 						context, true);
 
-				return;
+				return 0;
 			}
 
 			else if (cmd.equalsIgnoreCase(Constants.OPTION_TAIL)) {
 				if (!isContainerBuilt) {
 					Logger.error("Container " + context.getContainerName() + " is not running.");
-					return;
+					return 0;
 				}
 
 				TaskUtils.runCmd(curRunCmd + " /home/default/artifacts/tail_server.sh",
 						context, true);
 
-				return;
+				return 0;
 
 			}
 
 			else if (cmd.equalsIgnoreCase(Constants.OPTION_CLEAN)) {
 				if (!isContainerBuilt) {
 					Logger.error("Container " + context.getContainerName() + " is not running.");
-					return;
+					return 0;
 				}
 				
 				String logFileName = context.getLogFileName();
@@ -545,13 +567,22 @@ public class IDC {
 				TaskUtils.runCmd(curRunCmd + " /home/default/artifacts/clean_server.sh" + " "
 						+ logFileName + " " + libertyEnvValue, context, true);
 
-				return;
+				return 0;
 			}
 
+		} catch (IDCExitException e) {
+			return e.getExitCode();
 		} catch (Exception e) {
 			Logger.error(ErrorCode.unexpectedError.message(), e);
-			System.exit(ErrorCode.unexpectedError.ordinal());
+			return ErrorCode.unexpectedError.ordinal();
+		} finally {
+			if (commandSpan != null) {
+				commandSpan.close();
+			}
+			Metrics.flush();
 		}
+
+		return 0;
 	}
 
 	private static void startServer(IDCContext context, String curRunCmd, DBMap appDb) throws Exception {
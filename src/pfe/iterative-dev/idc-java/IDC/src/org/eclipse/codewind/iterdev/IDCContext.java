@@ -65,8 +65,17 @@ public class IDCContext {
 	private final String imageCommand;
 
 	private final String imagesFormatString;
+
+	private static String cachedConfigStamp;
+
+	private static Properties cachedConfig;
 	
 	public IDCContext(String rootPassword, String localWorkspaceOrigin, String containerName, String projectID, String logName, String imagePushRegistry, String startMode, String debugPort, ArrayList<String> portMappings) throws IOException {
+		this(new File(System.getProperty("user.dir")), rootPassword, localWorkspaceOrigin, containerName, projectID, logName, imagePushRegistry, startMode, debugPort, portMappings);
+	}
+
+	/** appDirectory is the directory idc was run in, which identifies the application. */
+	public IDCContext(File appDirectory, String rootPassword, String localWorkspaceOrigin, String containerName, String projectID, String logName, String imagePushRegistry, String startMode, String debugPort, ArrayList<String> portMappings) throws IOException {
 
 		this.rootPassword = rootPassword;
 
@@ -86,45 +95,48 @@ public class IDCContext {
 		this.idcBase = new File(idcBasePath);
 
 		/** app id is a hash of the path */
-		this.appId = DigestUtils.sha1Hex(System.getProperty("user.dir").getBytes());
+		this.appId = DigestUtils.sha1Hex(appDirectory.getPath().getBytes());
 
-		this.appDb = new DBMap(appId, idcBase);
+		this.appDb = DBMap.open(appId, idcBase);
 		
+		// Store the settings given on the command line for future access, all in one write
+		DBMap.Transaction dbChanges = appDb.begin();
+
 		this.localWorkspaceOrigin = localWorkspaceOrigin;
 		if (this.localWorkspaceOrigin != null && appDb.get(Constants.DB_PROJECT_ID) != this.localWorkspaceOrigin) {
-			appDb.put(Constants.DB_WORKSPACE_ORIGIN, this.localWorkspaceOrigin);
+			dbChanges.put(Constants.DB_WORKSPACE_ORIGIN, this.localWorkspaceOrigin);
 		}
 		
 		// Store the container/image name in the appdb for future access
 		this.containerName = containerName;
 		if (this.containerName != null && appDb.get(Constants.DB_CONTAINER_NAME) != this.containerName)  {
-			appDb.put(Constants.DB_CONTAINER_NAME, this.containerName);
+			dbChanges.put(Constants.DB_CONTAINER_NAME, this.containerName);
 		}
 		
 		// Store the app log name in the appdb for future access
 		this.logName = logName;
 		if (this.logName != null && appDb.get(Constants.DB_LOG_NAME) != this.logName) {
-			appDb.put(Constants.DB_LOG_NAME, this.logName);
+			dbChanges.put(Constants.DB_LOG_NAME, this.logName);
 		}
 		
 		this.projectID = projectID;
 		if (this.projectID != null && appDb.get(Constants.DB_PROJECT_ID) != this.projectID) {
-			appDb.put(Constants.DB_PROJECT_ID, this.projectID);
+			dbChanges.put(Constants.DB_PROJECT_ID, this.projectID);
 		}
 
 		this.imagePushRegistry = imagePushRegistry;
 		if (this.imagePushRegistry != null) {
-			appDb.put(Constants.DB_IMAGE_PUSH_REGISTRY, this.imagePushRegistry);
+			dbChanges.put(Constants.DB_IMAGE_PUSH_REGISTRY, this.imagePushRegistry);
 		}
 
 		this.startMode = startMode;
 		if (this.startMode != null) {
-			appDb.put(Constants.DB_START_MODE, this.startMode);
+			dbChanges.put(Constants.DB_START_MODE, this.startMode);
 		}
 
 		this.debugPort = debugPort;
 		if (this.debugPort != null) {
-			appDb.put(Constants.DB_DEBUG_PORT, this.debugPort);
+			dbChanges.put(Constants.DB_DEBUG_PORT, this.debugPort);
 		}
 		
 		this.portMappings = portMappings;
@@ -132,16 +144,17 @@ public class IDCContext {
 			// Convert to string, use ',' as delimiter so we can reparse it as an array later
 			// The ports will never have a ','
 			String portMappingsAsString = String.join(",", this.portMappings);
-			appDb.put(Constants.DB_PORT_MAPPINGS, portMappingsAsString);
+			dbChanges.put(Constants.DB_PORT_MAPPINGS, portMappingsAsString);
 		}
+		dbChanges.commit();
 
 		this.artifactsDirectory = getArtifactsFromInstallDir();
 
-		this.appDirectory = new File(System.getProperty("user.dir"));
+		this.appDirectory = appDirectory;
 
 		this.appName = this.appDirectory.getName();
 
-		this.globalDb = new DBMap("global", idcBase);
+		this.globalDb = DBMap.open("global", idcBase);
 		
 		String hostOS = System.getenv("HOST_OS");
 		if(hostOS != null) {
@@ -285,13 +298,23 @@ public class IDCContext {
 
 		File idcConfig = new File(idcJarDir, Constants.SLASH + Constants.IDC_CONFIG_FILE);
 		if (idcConfig.exists()) {
-			try {
-				props.load(new FileInputStream(idcConfig));
-			} catch (FileNotFoundException e) {
-				// The idc config file is optional
-			} catch (IOException e) {
-				Logger.info("Encountered an error while reading the IDC configuration file");
-				e.printStackTrace();
+			// A daemon reuses what it read last time unless the file has changed since
+			String stamp = idcConfig.getPath() + ":" + idcConfig.lastModified() + ":" + idcConfig.length();
+			synchronized (IDCContext.class) {
+				if (stamp.equals(cachedConfigStamp)) {
+					props.putAll(cachedConfig);
+				} else {
+					try (FileInputStream in = new FileInputStream(idcConfig)) {
+						props.load(in);
+						cachedConfigStamp = stamp;
+						cachedConfig = (Properties) props.clone();
+					} catch (FileNotFoundException e) {
+						// The idc config file is optional
+					} catch (IOException e) {
+						Logger.info("Encountered an error while reading the IDC configuration file");
+						e.printStackTrace();
+					}
+				}
 			}
 		}
 		if (!props.isEmpty()) {
@@ -0,0 +1,383 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.iterdev;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+import org.eclipse.codewind.iterdev.Constants.ErrorCode;
+
+/**
+ * Runs idc commands for clients in one long running JVM, so that each command
+ * doesn't pay for starting a JVM and reloading the config and dbs. The daemon
+ * is started by file-watcher/scripts/root-watcher.sh when the container
+ * starts, and the idc script runs commands itself while it isn't running.
+ *
+ * Java 8 has no Unix domain sockets, so the daemon listens on a loopback port.
+ * The port and a random token are written to DAEMON_FILE in the IDC jar's
+ * directory, readable only by the user, and a client must send the token
+ * before anything else. The request and response are lines of UTF-8 text:
+ *
+ * <pre>
+ * client: token, working directory, argument count, one argument per line
+ * daemon: "O text" for each line of standard output, "E text" for each line
+ *         of standard error, then "X code" with the exit code
+ * </pre>
+ *
+ * or just "L" if the command has to be run locally instead, because it reads
+ * from standard input. Commands run in parallel, each on its own thread, and
+ * their output is sent to their own client. If a client disconnects its
+ * command is interrupted, which ends any process it is waiting on.
+ *
+ * Builds are the exception: they are queued with a BuildScheduler, which limits
+ * how many run at once to the MAX_CONCURRENT_BUILDS system property, by default
+ * the number of processors. Builds asked for in quick succession for the same
+ * app are merged, waiting until there have been none for the BUILD_QUIET_WINDOW
+ * system property in milliseconds, by default 500. A client that disconnects
+ * stops waiting for its build but the build still runs.
+ */
+public class IDCDaemon {
+
+	public static final String DAEMON_FILE = ".idc-daemon";
+
+	/** Commands that prompt on standard input, which a client can't answer. */
+	private static final List<String> LOCAL_COMMANDS = Arrays.asList(Constants.OPTION_SYSTEM_CLEANUP,
+			Constants.OPTION_DAEMON);
+
+	/** Where the output of the command running on this thread goes, inherited by the threads it starts. */
+	private static final InheritableThreadLocal<Output> CLIENT = new InheritableThreadLocal<>();
+
+	private static BuildScheduler builds;
+
+	/** Somewhere to send a command's output, one line at a time. */
+	interface Output {
+		void write(char stream, byte[] b, int off, int len);
+	}
+
+	/** Sends output to several clients, all waiting on the same build. */
+	static class Outputs implements Output {
+
+		private final List<Output> outputs = new CopyOnWriteArrayList<>();
+
+		void add(Output output) {
+			outputs.add(output);
+		}
+
+		@Override
+		public void write(char stream, byte[] b, int off, int len) {
+			for (Output output : outputs) {
+				output.write(stream, b, off, len);
+			}
+		}
+	}
+
+	public static void run() throws IOException {
+		System.setOut(new PrintStream(new ClientOutputStream(System.out, 'O'), true));
+		System.setErr(new PrintStream(new ClientOutputStream(System.err, 'E'), true));
+
+		int maxConcurrentBuilds = Integer.getInteger(Constants.MAX_CONCURRENT_BUILDS,
+				Runtime.getRuntime().availableProcessors());
+		long buildQuietWindow = Long.getLong(Constants.BUILD_QUIET_WINDOW, 500);
+		builds = new BuildScheduler(maxConcurrentBuilds, buildQuietWindow);
+
+		String token = new BigInteger(130, new SecureRandom()).toString(32);
+		try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+			File daemonFile = new File(IDCContext.getIDCJarDir(), DAEMON_FILE);
+			String contents = server.getLocalPort() + " " + token + "\n";
+			writeDaemonFile(daemonFile, contents);
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				try {
+					// Leave it alone if another daemon has replaced it
+					if (contents.equals(new String(Files.readAllBytes(daemonFile.toPath()), StandardCharsets.UTF_8))) {
+						Files.delete(daemonFile.toPath());
+					}
+				} catch (IOException e) {
+					/* ignore */
+				}
+			}));
+			Logger.info("IDC daemon listening on port " + server.getLocalPort());
+
+			ExecutorService commands = Executors.newCachedThreadPool(r -> {
+				Thread t = new Thread(r, "idc-daemon-command");
+				t.setDaemon(true);
+				return t;
+			});
+			while (true) {
+				Socket socket = server.accept();
+				commands.execute(() -> handle(socket, token));
+			}
+		}
+	}
+
+	private static void writeDaemonFile(File daemonFile, String contents) throws IOException {
+		File temp = new File(daemonFile.getPath() + ".tmp");
+		Files.write(temp.toPath(), new byte[0]);
+		try {
+			Files.setPosixFilePermissions(temp.toPath(), PosixFilePermissions.fromString("rw-------"));
+		} catch (UnsupportedOperationException e) {
+			// Not a POSIX file system, the token is only as private as the directory
+		}
+		Files.write(temp.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+		Files.move(temp.toPath(), daemonFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static void handle(Socket socket, String token) {
+		try (Socket s = socket) {
+			BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+			String clientToken = in.readLine();
+			if (clientToken == null || !MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8),
+					clientToken.getBytes(StandardCharsets.UTF_8))) {
+				return;
+			}
+			File dir = new File(in.readLine());
+			String[] args = new String[Integer.parseInt(in.readLine().trim())];
+			for (int i = 0; i < args.length; i++) {
+				args[i] = in.readLine();
+			}
+
+			Client client = new Client(s.getOutputStream());
+			if (args.length > 0 && LOCAL_COMMANDS.contains(args[0].toLowerCase())) {
+				client.send("L");
+				return;
+			}
+
+			Thread worker = Thread.currentThread();
+			Thread watcher = new Thread(() -> {
+				try {
+					while (in.read() != -1) {
+						// Nothing more is expected from the client
+					}
+				} catch (IOException e) {
+					/* closed */
+				}
+				client.disconnected(worker);
+			}, "idc-daemon-client");
+			watcher.setDaemon(true);
+			watcher.start();
+
+			int exitCode;
+			try {
+				if (args.length > 0 && args[0].equalsIgnoreCase(Constants.OPTION_BUILD)) {
+					exitCode = builds.submit(dir, args, client).get();
+				} else {
+					exitCode = run(client, args, dir);
+				}
+			} catch (InterruptedException e) {
+				// The client has gone, any build it asked for carries on for anyone else waiting for it
+				return;
+			} catch (ExecutionException e) {
+				exitCode = ErrorCode.unexpectedError.ordinal();
+			} finally {
+				client.finished();
+			}
+			client.exit(exitCode);
+		} catch (IOException | RuntimeException e) {
+			Logger.error("IDC daemon request failed: " + e);
+		}
+	}
+
+	/** Where output written on this thread goes, or null for the console. */
+	static Output currentOutput() {
+		return CLIENT.get();
+	}
+
+	/** Runs a command with its output going to output, returning the exit code. */
+	static int run(Output output, String[] args, File dir) {
+		CLIENT.set(output);
+		try {
+			return new IDC().run(args, dir);
+		} catch (Exception e) {
+			Logger.error(ErrorCode.unexpectedError.message(), e);
+			return ErrorCode.unexpectedError.ordinal();
+		} finally {
+			// Before the exit code is sent, so the client gets all of the command's messages
+			Logger.flush();
+			CLIENT.remove();
+		}
+	}
+
+	/**
+	 * Wraps a task so that its output goes where the current thread's does,
+	 * for tasks run on pooled threads, which don't inherit it.
+	 */
+	public static Runnable withOutput(Runnable task) {
+		return withOutput(CLIENT.get(), task);
+	}
+
+	/** As withOutput(Runnable), for a task that returns a result. */
+	public static <T> Supplier<T> withOutput(Supplier<T> task) {
+		Output output = CLIENT.get();
+		return () -> {
+			CLIENT.set(output);
+			try {
+				return task.get();
+			} finally {
+				CLIENT.remove();
+			}
+		};
+	}
+
+	static Runnable withOutput(Output output, Runnable task) {
+		return () -> {
+			// A pooled thread may have inherited the output of whatever command created it
+			CLIENT.set(output);
+			try {
+				task.run();
+			} finally {
+				CLIENT.remove();
+			}
+		};
+	}
+
+	/** A connected client, which the output of its command is sent to. */
+	private static class Client implements Output {
+
+		private final OutputStream out;
+
+		private final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+
+		private final ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+
+		private boolean running = true;
+
+		private boolean connected = true;
+
+		Client(OutputStream out) {
+			this.out = out;
+		}
+
+		/** Buffers output until a whole line can be sent. */
+		@Override
+		public synchronized void write(char stream, byte[] b, int off, int len) {
+			ByteArrayOutputStream line = stream == 'O' ? stdout : stderr;
+			for (int i = off; i < off + len; i++) {
+				if (b[i] == '\n') {
+					sendLine(stream, line);
+				} else {
+					line.write(b[i]);
+				}
+			}
+		}
+
+		private void sendLine(char stream, ByteArrayOutputStream line) {
+			ByteArrayOutputStream message = new ByteArrayOutputStream(line.size() + 3);
+			message.write(stream);
+			message.write(' ');
+			message.write(line.toByteArray(), 0, line.size());
+			message.write('\n');
+			line.reset();
+			sendBytes(message.toByteArray());
+		}
+
+		synchronized void send(String message) {
+			sendBytes((message + "\n").getBytes(StandardCharsets.UTF_8));
+		}
+
+		private void sendBytes(byte[] bytes) {
+			if (!connected) {
+				return;
+			}
+			try {
+				out.write(bytes);
+				out.flush();
+			} catch (IOException e) {
+				connected = false;
+			}
+		}
+
+		synchronized void exit(int exitCode) {
+			if (stdout.size() > 0) {
+				sendLine('O', stdout);
+			}
+			if (stderr.size() > 0) {
+				sendLine('E', stderr);
+			}
+			send("X " + exitCode);
+		}
+
+		/** Called when the client closes its connection, interrupting the command if it's still running. */
+		synchronized void disconnected(Thread worker) {
+			connected = false;
+			if (running) {
+				worker.interrupt();
+			}
+		}
+
+		/** Called when the command has finished, after which the worker is no longer interrupted. */
+		void finished() {
+			synchronized (this) {
+				running = false;
+			}
+			// Clear an interrupt that came too late to matter, before the thread is reused
+			Thread.interrupted();
+		}
+	}
+
+	/** Sends what is written to the client of the current thread's command, or to the console if there isn't one. */
+	private static class ClientOutputStream extends OutputStream {
+
+		private final PrintStream console;
+
+		private final char stream;
+
+		ClientOutputStream(PrintStream console, char stream) {
+			this.console = console;
+			this.stream = stream;
+		}
+
+		@Override
+		public void write(int b) {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			Output client = CLIENT.get();
+			if (client != null) {
+				client.write(stream, b, off, len);
+			} else {
+				console.write(b, off, len);
+			}
+		}
+
+		@Override
+		public void flush() {
+			if (CLIENT.get() == null) {
+				console.flush();
+			}
+		}
+	}
+
+}
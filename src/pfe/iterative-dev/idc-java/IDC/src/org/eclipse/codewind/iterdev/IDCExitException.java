@@ -0,0 +1,35 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.iterdev;
+
+import org.eclipse.codewind.iterdev.Constants.ErrorCode;
+
+/**
+ * Ends the current idc command with an exit code, from code that can't return
+ * one. Used instead of System.exit(), which would also end a daemon.
+ */
+public class IDCExitException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int exitCode;
+
+	public IDCExitException(ErrorCode errorCode) {
+		super(errorCode.message());
+		this.exitCode = errorCode.ordinal();
+	}
+
+	public int getExitCode() {
+		return exitCode;
+	}
+
+}
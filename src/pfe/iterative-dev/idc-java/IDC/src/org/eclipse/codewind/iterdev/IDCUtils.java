@@ -154,6 +154,7 @@ public class IDCUtils {
 		
 		String userResponse = null;
 		while(userResponse == null) {
+			Logger.flush();
 			System.out.print("[IDC] " + promptQuestion);
 
 			BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
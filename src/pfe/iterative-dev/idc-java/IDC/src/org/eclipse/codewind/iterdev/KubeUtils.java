@@ -20,7 +20,7 @@ public class KubeUtils {
 		String[] result;
 
 		ProcessRunner pr = TaskUtils.runCmd("kubectl get po", context, false);
-		result = pr.getReceived().split("\\r?\\n");
+		result = pr.getReceivedLines().toArray(new String[0]);
 		return result;
 	}
 }
\ No newline at end of file
@@ -11,18 +11,82 @@
 
 package org.eclipse.codewind.iterdev;
 
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.function.Supplier;
 
+/**
+ * Logs messages for idc without making the caller wait for them to be
+ * written. Messages are put in a fixed size ring buffer and written by a
+ * background thread, so a slow terminal or pipe never holds up a build. If
+ * the buffer fills up, new messages are dropped and counted until there is
+ * room again, except for errors, which take the place of the oldest message
+ * that isn't one.
+ *
+ * Messages are written to the console in the same format as always, or as
+ * JSON lines if the IDC_LOG_FORMAT system property is "json". Under the
+ * daemon they go to the client of the command that logged them. If the
+ * IDC_LOG_CALLERS system property is "true", they include the class and
+ * method that logged them.
+ *
+ * Output written directly to System.out, such as a process's echoed output
+ * or a prompt, could overtake messages still in the buffer, so flush() is
+ * called before each of those and when a command finishes.
+ */
 public class Logger {
 
+	public enum Level { ERROR, INFO, VERBOSE }
+
+	/** Writes log events, called on the logging thread only. */
+	public interface Appender {
+		void append(Event event);
+	}
+
+	private static final int BUFFER_SIZE = 8192;
+
+	/** How long flush() waits for messages to be written, so a stuck terminal doesn't hang idc. */
+	private static final long FLUSH_TIMEOUT = 2000;
+
 	/** Whether to use reflection to print the caller of the logging methods, as part of the 
 	 * outputted log statement. 
 	 * Example: [IDCContext.loadIDCConfigPropertiesFromFile:262] Configuration file detected:  */
-	private static final boolean printCallingMethods = false;
+	private static final boolean printCallingMethods = Boolean.getBoolean(Constants.IDC_LOG_CALLERS);
 	
     public static boolean isVerbose = false;
 
+	private static volatile Appender appender = "json".equalsIgnoreCase(System.getProperty(Constants.IDC_LOG_FORMAT))
+			? new JsonAppender() : new ConsoleAppender();
+
+	private static final Object lock = new Object();
+
+	private static final Event[] buffer = new Event[BUFFER_SIZE];
+
+	private static int head = 0;
+
+	private static int count = 0;
+
+	private static int dropped = 0;
+
+	/** Events logged and written, or dropped, so far, under lock. */
+	private static long logged = 0;
+
+	private static long written = 0;
+
+	static {
+		Thread writer = new Thread(Logger::writeEvents, "idc-logger");
+		writer.setDaemon(true);
+		writer.start();
+		try {
+			Runtime.getRuntime().addShutdownHook(new Thread(Logger::flush));
+		} catch (IllegalStateException e) {
+			/* first used by another shutdown hook, which flushes when it's done */
+		}
+	}
+
 	public static void printUsage() {
+		flush();
 		System.out.println("Commands:");
 		System.out.println();
 		printIDCCmd(Constants.OPTION_DEV);
@@ -50,36 +114,257 @@ public class Logger {
 		System.out.println("idc " + cmd);
 	}
 
+	public static boolean isEnabled(Level level) {
+		return level != Level.VERBOSE || isVerbose;
+	}
+
+	public static void setAppender(Appender appender) {
+		Logger.appender = appender;
+	}
+
 	public static void verbose(String msg) {
-		if(isVerbose) {
-			Date date = new Date();
-			System.out.println("[VERBOSE " + date.toString() + "] " + msg);
+		log(Level.VERBOSE, msg, null);
+	}
+
+	/** Logs a verbose message, only building it if verbose messages are enabled. */
+	public static void verbose(Supplier<String> msg) {
+		if (isEnabled(Level.VERBOSE)) {
+			log(Level.VERBOSE, msg.get(), null);
 		}
 	}
 
 	public static void info(String msg) {
-		String callingMethod = printCallingMethods ? getCallingMethod(Logger.class) : "";
-		System.out.println(callingMethod + msg);
+		log(Level.INFO, msg, null);
+	}
+
+	/** Logs an info message, only building it if info messages are enabled. */
+	public static void info(Supplier<String> msg) {
+		if (isEnabled(Level.INFO)) {
+			log(Level.INFO, msg.get(), null);
+		}
 	}
 
 	public static void error(String str) {
-		String callingMethod = printCallingMethods ? getCallingMethod(Logger.class) : "";
-		System.err.println(callingMethod + str);
+		log(Level.ERROR, str, null);
 	}
 
 	public static void error(String str, Exception e) {
-		String callingMethod = printCallingMethods ? getCallingMethod(Logger.class) : "";
-		System.err.println(callingMethod +  str + "\n" + e.getMessage());
-		e.printStackTrace();
+		log(Level.ERROR, str, e);
+	}
+
+	private static void log(Level level, String msg, Throwable exception) {
+		if (!isEnabled(level)) {
+			return;
+		}
+		// Filling in a stack trace is cheap, decoding it is left to the logging thread
+		Throwable caller = printCallingMethods ? new Throwable() : null;
+		Event event = new Event(level, msg, exception, caller);
+		synchronized (lock) {
+			if (count == BUFFER_SIZE) {
+				dropped++;
+				if (level != Level.ERROR || !evictNonError()) {
+					return;
+				}
+			}
+			buffer[(head + count) % BUFFER_SIZE] = event;
+			count++;
+			logged++;
+			lock.notifyAll();
+		}
+	}
+
+	/** Removes the oldest event that isn't an error from the buffer, under lock, returning whether there was one. */
+	private static boolean evictNonError() {
+		for (int i = 0; i < count; i++) {
+			if (buffer[(head + i) % BUFFER_SIZE].getLevel() != Level.ERROR) {
+				// Move the events after it up one
+				for (int j = i; j < count - 1; j++) {
+					buffer[(head + j) % BUFFER_SIZE] = buffer[(head + j + 1) % BUFFER_SIZE];
+				}
+				count--;
+				buffer[(head + count) % BUFFER_SIZE] = null;
+				logged--;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Waits, for a short while at most, for the messages logged so far to be written. */
+	public static void flush() {
+		long end = System.currentTimeMillis() + FLUSH_TIMEOUT;
+		synchronized (lock) {
+			long target = logged;
+			try {
+				while (written < target) {
+					long remaining = end - System.currentTimeMillis();
+					if (remaining <= 0) {
+						return;
+					}
+					lock.wait(remaining);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private static void writeEvents() {
+		List<Event> events = new ArrayList<>();
+		while (true) {
+			int droppedEvents;
+			synchronized (lock) {
+				try {
+					while (count == 0) {
+						lock.wait();
+					}
+				} catch (InterruptedException e) {
+					return;
+				}
+				while (count > 0) {
+					events.add(buffer[head]);
+					buffer[head] = null;
+					head = (head + 1) % BUFFER_SIZE;
+					count--;
+				}
+				droppedEvents = dropped;
+				dropped = 0;
+			}
+
+			Appender out = appender;
+			for (Event event : events) {
+				try {
+					IDCDaemon.withOutput(event.output, () -> out.append(event)).run();
+				} catch (RuntimeException e) {
+					/* ignore, so that one bad message doesn't stop the others */
+				}
+			}
+			if (droppedEvents > 0) {
+				System.err.println("[IDC] " + droppedEvents + " log messages were dropped as they were logged faster than they could be written");
+			}
+
+			synchronized (lock) {
+				written += events.size();
+				lock.notifyAll();
+			}
+			events.clear();
+		}
+	}
+
+	/** A logged message. */
+	public static class Event {
+
+		private final long time = System.currentTimeMillis();
+
+		private final Level level;
+
+		private final String message;
+
+		private final Throwable exception;
+
+		private final Throwable caller;
+
+		private final String threadName = Thread.currentThread().getName();
+
+		private final IDCDaemon.Output output = IDCDaemon.currentOutput();
+
+		Event(Level level, String message, Throwable exception, Throwable caller) {
+			this.level = level;
+			this.message = message;
+			this.exception = exception;
+			this.caller = caller;
+		}
+
+		public long getTime() {
+			return time;
+		}
+
+		public Level getLevel() {
+			return level;
+		}
+
+		public String getMessage() {
+			return message;
+		}
+
+		public Throwable getException() {
+			return exception;
+		}
+
+		public String getThreadName() {
+			return threadName;
+		}
+
+		/** The class and method that logged the message, as "[Class.method:line] ", or "" if not captured. */
+		public String getCallingMethod() {
+			return caller != null ? Logger.getCallingMethod(caller.getStackTrace(), Logger.class) : "";
+		}
+	}
+
+	/** Writes events the way idc always has. */
+	public static class ConsoleAppender implements Appender {
+
+		@Override
+		public void append(Event event) {
+			switch (event.getLevel()) {
+			case VERBOSE:
+				System.out.println("[VERBOSE " + new Date(event.getTime()).toString() + "] " + event.getMessage());
+				break;
+			case INFO:
+				System.out.println(event.getCallingMethod() + event.getMessage());
+				break;
+			case ERROR:
+				if (event.getException() == null) {
+					System.err.println(event.getCallingMethod() + event.getMessage());
+				} else {
+					System.err.println(event.getCallingMethod() + event.getMessage() + "\n" + event.getException().getMessage());
+					event.getException().printStackTrace();
+				}
+				break;
+			}
+		}
+	}
+
+	/** Writes each event as a line of JSON. */
+	public static class JsonAppender implements Appender {
+
+		@Override
+		public void append(Event event) {
+			StringBuilder json = new StringBuilder("{");
+			field(json, "time", Instant.ofEpochMilli(event.getTime()).toString()).append(',');
+			field(json, "level", event.getLevel().name()).append(',');
+			field(json, "thread", event.getThreadName()).append(',');
+			String callingMethod = event.getCallingMethod();
+			if (!callingMethod.isEmpty()) {
+				field(json, "caller", callingMethod.substring(1, callingMethod.length() - 2)).append(',');
+			}
+			if (event.getException() != null) {
+				field(json, "exception", event.getException().toString()).append(',');
+			}
+			field(json, "message", event.getMessage()).append('}');
+			(event.getLevel() == Level.ERROR ? System.err : System.out).println(json);
+		}
+
+		private static StringBuilder field(StringBuilder json, String name, String value) {
+			json.append('"').append(name).append("\":\"");
+			for (int i = 0; value != null && i < value.length(); i++) {
+				char c = value.charAt(i);
+				if (c == '"' || c == '\\') {
+					json.append('\\').append(c);
+				} else if (c < 0x20) {
+					json.append(String.format("\\u%04x", (int) c));
+				} else {
+					json.append(c);
+				}
+			}
+			return json.append('"');
+		}
 	}
-	
 	
 	/** Return the name of the class and method that is calling the logging method. */
-	private static String getCallingMethod(Class<?> loggerClass) {
+	private static String getCallingMethod(StackTraceElement[] steList, Class<?> loggerClass) {
 		String loggerClassName = loggerClass.getName();
 		try {
-			StackTraceElement[] steList = Thread.currentThread().getStackTrace();
-			
 			// Locate the index of the last STE that contains loggerClass
 			int lastIndexOfLoggerClass = -1;
 			for(int x = 0; x < steList.length; x++) {
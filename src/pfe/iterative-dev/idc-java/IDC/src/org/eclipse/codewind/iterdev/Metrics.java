@@ -0,0 +1,286 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.iterdev;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Timings of idc's phases and of the commands it runs, as histograms, for
+ * finding out where the time of a build goes.
+ *
+ * <pre>
+ * idc_phase_seconds{project, phase}     spans: container build, application build, ...
+ * idc_command_seconds{project, command} every command run through TaskUtils.runCmd
+ * </pre>
+ *
+ * Timings are kept in memory until flush(), at the end of each idc command,
+ * adds them to the totals in the "metrics" db, which every idc process adds
+ * to. The totals are then written to the .idc dir as PROMETHEUS_FILE, in the
+ * Prometheus text format, and as JSON_FILE, holding the db's lock so that the
+ * files are always from the latest totals. Projects are labelled with their
+ * portal project ID, or the app ID if they don't have one.
+ */
+public class Metrics {
+
+	public static final String METRICS_DB = "metrics";
+
+	public static final String PROMETHEUS_FILE = "metrics.prom";
+
+	public static final String JSON_FILE = "metrics.json";
+
+	public static final String PHASE_METRIC = "idc_phase_seconds";
+
+	public static final String COMMAND_METRIC = "idc_command_seconds";
+
+	/** Histogram bucket upper bounds, in seconds. */
+	private static final double[] BUCKETS = { 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 120, 300 };
+
+	/** Timings not yet flushed, by idc base and then db key. */
+	private static final Map<File, Map<String, Histogram>> recorded = new HashMap<>();
+
+	/** Starts timing a phase, which is recorded when the span is closed. */
+	public static Span span(IDCContext context, String phase) {
+		return new Span(context, phase);
+	}
+
+	/** Records how long a command run by TaskUtils.runCmd took. */
+	public static void recordCommand(IDCContext context, String cmd, long nanos) {
+		record(context, COMMAND_METRIC, "command", commandName(cmd), nanos);
+	}
+
+	/**
+	 * The program a command runs and its subcommand, if it has one, such as
+	 * "docker ps". For docker and kubectl exec, the program run in the
+	 * container is added, such as "docker exec clean_build_server.sh".
+	 */
+	static String commandName(String cmd) {
+		String[] tokens = cmd.trim().split("\\s+");
+		String name = baseName(tokens[0]);
+		if (tokens.length < 2 || !tokens[1].matches("[a-z][a-z-]*")) {
+			return name;
+		}
+		name += " " + tokens[1];
+		if (tokens[1].equals("exec")) {
+			// Skip the container or pod name, and any options
+			for (int i = 3; i < tokens.length; i++) {
+				if (!tokens[i].startsWith("-")) {
+					return name + " " + baseName(tokens[i]);
+				}
+			}
+		}
+		return name;
+	}
+
+	private static String baseName(String path) {
+		return path.substring(path.lastIndexOf('/') + 1);
+	}
+
+	private static void record(IDCContext context, String metric, String labelName, String labelValue, long nanos) {
+		String project = context.getprojectID().isEmpty() ? context.getAppId() : context.getprojectID();
+		String key = metric + "\t" + project + "\t" + labelName + "\t" + labelValue;
+		synchronized (recorded) {
+			recorded.computeIfAbsent(context.getIDCBase().getAbsoluteFile(), b -> new HashMap<>())
+					.computeIfAbsent(key, k -> new Histogram()).add(nanos / 1e9);
+		}
+	}
+
+	/** Adds the timings recorded so far to the metrics db and rewrites the export files. */
+	public static void flush() {
+		Map<File, Map<String, Histogram>> toFlush;
+		synchronized (recorded) {
+			if (recorded.isEmpty()) {
+				return;
+			}
+			toFlush = new HashMap<>(recorded);
+			recorded.clear();
+		}
+
+		for (Map.Entry<File, Map<String, Histogram>> e : toFlush.entrySet()) {
+			try {
+				DBLock lock = DBLock.forFile(new File(new File(e.getKey(), "db"), DBMap.DBPREFIX + METRICS_DB));
+				lock.lock();
+				try {
+					writeExports(e.getKey(), add(e.getKey(), e.getValue()));
+				} finally {
+					lock.unlock();
+				}
+			} catch (IOException | RuntimeException ex) {
+				Logger.error("Unable to write metrics to " + e.getKey(), ex);
+			}
+		}
+	}
+
+	/** Adds the histograms to those in the db. */
+	private static Map<String, String> add(File idcBase, Map<String, Histogram> histograms) throws IOException {
+		DBMap db = DBMap.open(METRICS_DB, idcBase);
+		while (true) {
+			DBMap.Transaction tx = db.begin();
+			Map<String, String> totals = new TreeMap<>(db.getMap());
+			for (Map.Entry<String, Histogram> e : histograms.entrySet()) {
+				Histogram total = Histogram.parse(totals.get(e.getKey()));
+				total.add(e.getValue());
+				totals.put(e.getKey(), total.toString());
+				tx.put(e.getKey(), total.toString());
+			}
+			if (tx.commitIfUnchanged()) {
+				return totals;
+			}
+		}
+	}
+
+	private static void writeExports(File idcBase, Map<String, String> totals) throws IOException {
+		StringBuilder prometheus = new StringBuilder();
+		StringBuilder json = new StringBuilder("[");
+		String lastMetric = null;
+		for (Map.Entry<String, String> e : totals.entrySet()) {
+			String[] key = e.getKey().split("\t", -1);
+			if (key.length != 4) {
+				continue;
+			}
+			String metric = key[0];
+			Histogram histogram = Histogram.parse(e.getValue());
+
+			if (!metric.equals(lastMetric)) {
+				prometheus.append("# TYPE ").append(metric).append(" histogram\n");
+				lastMetric = metric;
+			}
+			String labels = "project=\"" + escape(key[1]) + "\"," + key[2] + "=\"" + escape(key[3]) + "\"";
+			long cumulative = 0;
+			for (int i = 0; i < BUCKETS.length; i++) {
+				cumulative += histogram.buckets[i];
+				prometheus.append(metric).append("_bucket{").append(labels).append(",le=\"").append(BUCKETS[i])
+						.append("\"} ").append(cumulative).append('\n');
+			}
+			prometheus.append(metric).append("_bucket{").append(labels).append(",le=\"+Inf\"} ")
+					.append(histogram.count).append('\n');
+			prometheus.append(metric).append("_sum{").append(labels).append("} ").append(histogram.sum).append('\n');
+			prometheus.append(metric).append("_count{").append(labels).append("} ").append(histogram.count)
+					.append('\n');
+
+			if (json.length() > 1) {
+				json.append(',');
+			}
+			json.append("\n  {\"name\": \"").append(metric).append("\", \"labels\": {\"project\": \"")
+					.append(escape(key[1])).append("\", \"").append(key[2]).append("\": \"").append(escape(key[3]))
+					.append("\"}, \"count\": ").append(histogram.count).append(", \"sum\": ").append(histogram.sum)
+					.append(", \"buckets\": {");
+			cumulative = 0;
+			for (int i = 0; i < BUCKETS.length; i++) {
+				cumulative += histogram.buckets[i];
+				json.append(i > 0 ? ", " : "").append('"').append(BUCKETS[i]).append("\": ").append(cumulative);
+			}
+			json.append("}}");
+		}
+		json.append("\n]\n");
+
+		write(new File(idcBase, PROMETHEUS_FILE), prometheus.toString());
+		write(new File(idcBase, JSON_FILE), json.toString());
+	}
+
+	/** Escapes a label value for both formats, which escape the same characters the same way. */
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	/** Replaces the file in one go, so a scraper never reads half of it. */
+	private static void write(File file, String contents) throws IOException {
+		Path temp = Files.createTempFile(file.getParentFile().toPath(), file.getName(), ".tmp");
+		Files.write(temp, contents.getBytes(StandardCharsets.UTF_8));
+		Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/** A timed phase, recorded when it is closed. */
+	public static class Span implements AutoCloseable {
+
+		private final IDCContext context;
+
+		private final String phase;
+
+		private final long start = System.nanoTime();
+
+		private Span(IDCContext context, String phase) {
+			this.context = context;
+			this.phase = phase;
+		}
+
+		@Override
+		public void close() {
+			record(context, PHASE_METRIC, "phase", phase, System.nanoTime() - start);
+		}
+	}
+
+	/** Counts of timings per bucket, stored in the db as "count sum bucket0 bucket1 ...". */
+	private static class Histogram {
+
+		private long count;
+
+		private double sum;
+
+		private final long[] buckets = new long[BUCKETS.length];
+
+		void add(double seconds) {
+			count++;
+			sum += seconds;
+			for (int i = 0; i < BUCKETS.length; i++) {
+				if (seconds <= BUCKETS[i]) {
+					buckets[i]++;
+					break;
+				}
+			}
+		}
+
+		void add(Histogram other) {
+			count += other.count;
+			sum += other.sum;
+			for (int i = 0; i < BUCKETS.length; i++) {
+				buckets[i] += other.buckets[i];
+			}
+		}
+
+		static Histogram parse(String value) {
+			Histogram histogram = new Histogram();
+			if (value == null) {
+				return histogram;
+			}
+			String[] fields = value.split(" ");
+			if (fields.length != BUCKETS.length + 2) {
+				// Written with different buckets, start again
+				return histogram;
+			}
+			histogram.count = Long.parseLong(fields[0]);
+			histogram.sum = Double.parseDouble(fields[1]);
+			for (int i = 0; i < BUCKETS.length; i++) {
+				histogram.buckets[i] = Long.parseLong(fields[i + 2]);
+			}
+			return histogram;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder value = new StringBuilder().append(count).append(' ').append(sum);
+			for (long bucket : buckets) {
+				value.append(' ').append(bucket);
+			}
+			return value.toString();
+		}
+	}
+
+}
@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.iterdev;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Which lines of a process's output a ProcessRunner keeps for getReceived(),
+ * so that the output of long builds, which is echoed and written to logs
+ * anyway, isn't all held in memory as well.
+ */
+public class OutputCapture {
+
+	private final int maxLines;
+
+	private final Pattern pattern;
+
+	private final Deque<String> lines = new ArrayDeque<>();
+
+	private OutputCapture(int maxLines, Pattern pattern) {
+		this.maxLines = maxLines;
+		this.pattern = pattern;
+	}
+
+	/** Keeps every line. */
+	public static OutputCapture all() {
+		return new OutputCapture(Integer.MAX_VALUE, null);
+	}
+
+	/** Keeps the last maxLines lines. */
+	public static OutputCapture tail(int maxLines) {
+		return new OutputCapture(maxLines, null);
+	}
+
+	/** Keeps nothing, for output that is only echoed or listened to. */
+	public static OutputCapture none() {
+		return tail(0);
+	}
+
+	/** Keeps the lines that contain a match for pattern. */
+	public static OutputCapture matching(String pattern) {
+		return new OutputCapture(Integer.MAX_VALUE, Pattern.compile(pattern));
+	}
+
+	synchronized void add(String line) {
+		if (maxLines == 0 || (pattern != null && !pattern.matcher(line).find())) {
+			return;
+		}
+		if (lines.size() == maxLines) {
+			lines.removeFirst();
+		}
+		lines.addLast(line);
+	}
+
+	/** A copy of the lines kept so far, oldest first. */
+	public synchronized List<String> getLines() {
+		return new ArrayList<>(lines);
+	}
+
+	/** The lines kept so far, each followed by a new line. */
+	public synchronized String getText() {
+		StringBuilder text = new StringBuilder();
+		for (String line : lines) {
+			text.append(line).append('\n');
+		}
+		return text.toString();
+	}
+
+}
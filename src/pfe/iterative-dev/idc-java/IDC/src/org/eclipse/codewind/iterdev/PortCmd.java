@@ -25,6 +25,8 @@ import org.eclipse.codewind.iterdev.tasks.TaskUtils;
 
 public class PortCmd {
 
+	private static final int MAX_RESERVE_ATTEMPTS = 10;
+
 	public static void handleCommand(IDCContext context, String[] args) throws Exception {
 		
 		Map<String, PortMapping> map = PortMapUtil.getPortMappingsFromDatabase(context.getGlobalDb());
@@ -84,6 +86,23 @@ public class PortCmd {
 				newPorts.put(PortMapUtil.HTTP_PORT, userHttpPort);
 				newPorts.put(PortMapUtil.HTTPS_PORT, userHttpsPort);
 			}
+			
+			System.out.println("* Reserving ports "+newPorts.get(PortMapUtil.HTTP_PORT)+" and "+newPorts.get(PortMapUtil.HTTPS_PORT));
+			
+			// Reserved before the container is destroyed, as another idc process may have taken the ports since they were chosen
+			int attempts = 1;
+			while(!PortMapUtil.reservePortsInDatabase(context, newPorts)) {
+				// Autoselected ports may be taken again, but not forever, as the app's own mapping is reselected if it has one
+				if(userHttpPort != 0 || attempts++ == MAX_RESERVE_ATTEMPTS) {
+					Logger.error("Unable to reserve ports, the container has not been changed.");
+					return;
+				}
+				newPorts = PortMapUtil.getPortsForApplication(context).orElseThrow( () -> new IllegalStateException("Unable to acquire free application ports") );
+			}
+			
+			Map<String, Integer> oldPorts = new HashMap<>();
+			oldPorts.put(PortMapUtil.HTTP_PORT, currHttpPort);
+			oldPorts.put(PortMapUtil.HTTPS_PORT, currHttpsPort);
 
 			System.out.println("* Stopping container "+context.getContainerName());
 			
@@ -91,6 +110,7 @@ public class PortCmd {
 			ProcessRunner pr = TaskUtils.runCmd("docker stop "+context.getContainerName(), context, true);
 			if(0 != pr.getErrorCode().orElseThrow( () -> new IllegalStateException()) ) {
 				Logger.error("Unable to stop container.");
+				restorePorts(context, oldPorts);
 				return;
 			}
 
@@ -100,17 +120,10 @@ public class PortCmd {
 			pr = TaskUtils.runCmd("docker rm  "+context.getContainerName(), context, true);
 			if(0 != pr.getErrorCode().orElseThrow( () -> new IllegalStateException()) ) {
 				Logger.error("Unable to stop container.");
+				restorePorts(context, oldPorts);
 				return;
 			}
 			
-			System.out.println("* Reserving ports "+userHttpPort+" and "+userHttpsPort);
-			
-			// Remove old ports from DB
-			PortMapUtil.removePortMapping(context, PortMapUtil.HTTP_PORT);
-			PortMapUtil.removePortMapping(context, PortMapUtil.HTTPS_PORT);
-			PortMapUtil.reservePortsInDatabase(context, newPorts);
-			
-			
 			System.out.println("* Run a new container "+context.getContainerName());
 			
 			// Call run again
@@ -129,6 +142,13 @@ public class PortCmd {
 		
 	}
 	
+	/** Puts back the ports the container still has, after failing to replace it. */
+	private static void restorePorts(IDCContext context, Map<String, Integer> oldPorts) throws IOException {
+		if(!PortMapUtil.reservePortsInDatabase(context, oldPorts)) {
+			Logger.error("Unable to restore the reservation of ports "+oldPorts.values()+" for the container.");
+		}
+	}
+	
 	private static Integer readValidPort(IDCContext context, String message) throws IOException {
 		BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
 		
@@ -112,11 +112,42 @@ public class PortMapUtil {
 		
 	}
 	
-	public static void reservePortsInDatabase(IDCContext context, Map<String, Integer> ports) {
-		
-		ports.entrySet().stream().forEach( e -> {
-			putPortMapping(context, e.getKey(), e.getValue());
-		});
+	/**
+	 * Reserves the ports for this application in the global database, replacing any it already has. Returns false
+	 * if another application has reserved one of them. Other idc processes may be reserving ports at the same time,
+	 * so the check and the write are retried until nothing else has changed the database in between. 
+	 */
+	public static boolean reservePortsInDatabase(IDCContext context, Map<String, Integer> ports) throws IOException {
+		
+		DBMap db = context.getGlobalDb();
+		while(true) {
+			DBMap.Transaction tx = db.begin();
+			
+			Map<String, PortMapping> portMappings = getPortMappingsFromDatabase(db);
+			
+			for(PortMapping pm : portMappings.values()) {
+				if(pm.getAppId().equals(context.getAppId())) {
+					continue;
+				}
+				if(pm.getMap().values().stream().anyMatch(port -> ports.containsValue(port))) {
+					Logger.error("Ports "+ports.values()+" are already reserved by "+pm.getAppName());
+					return false;
+				}
+			}
+			
+			// The keys include the app name, which may have changed since they were written
+			db.getMap().keySet().stream().filter(key -> key.startsWith("port-mapping") && extractField("appid", key).equals(context.getAppId())).forEach( key -> {
+				tx.remove(key);
+			});
+			
+			ports.entrySet().stream().forEach( e -> {
+				putPortMapping(tx, context, e.getKey(), e.getValue());
+			});
+			
+			if(tx.commitIfUnchanged()) {
+				return true;
+			}
+		}
 		
 	}
 	
@@ -135,7 +166,7 @@ public class PortMapUtil {
 		context.getGlobalDb().remove(generateKey(context, portName));
 	}
 	
-	private static void putPortMapping(IDCContext context, String portName, int portValue) {
+	private static void putPortMapping(DBMap.Transaction tx, IDCContext context, String portName, int portValue) {
 		
 		if(portValue > 65535 || portValue < 0) {
 			throw new IllegalArgumentException("Invalid port value: "+portValue);
@@ -152,7 +183,7 @@ public class PortMapUtil {
 		
 		String key = generateKey(context, portName);
 		
-		context.getGlobalDb().put(key, ""+portValue);
+		tx.put(key, ""+portValue);
 		
 	}
 	
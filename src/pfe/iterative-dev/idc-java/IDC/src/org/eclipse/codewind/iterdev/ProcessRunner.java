@@ -12,21 +12,38 @@
 package org.eclipse.codewind.iterdev;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class ProcessRunner {
 	
 	public static enum ConsoleStream {ERR, OUT }; 
 
+	private static final ExecutorService IO_POOL = Executors.newCachedThreadPool(r -> {
+		Thread t = new Thread(r, "idc-process-io");
+		t.setDaemon(true);
+		return t;
+	});
+
+	/** How long to wait for the rest of the output once the process has exited. */
+	private static final long DRAIN_TIMEOUT = 2000;
 
 	private final String[] args;
 	
@@ -36,14 +53,18 @@ public class ProcessRunner {
 	
 	private final List<IListener> listeners = new ArrayList<>();
 	
-	private final StringBuilder received = new StringBuilder();
+	private OutputCapture capture = OutputCapture.all();
 	
 	private final boolean echoOutput;
 	
-	private Optional<Integer> errorCode = Optional.empty();
+	private volatile Optional<Integer> errorCode = Optional.empty();
+	
+	private Process process;
 	
 	private final Map<String, String> envVars = new HashMap<String, String>();
 	
+	private File directory;
+	
 	public ProcessRunner(String[] args) {
 		this.args = args;
 		this.echoOutput = true;
@@ -56,6 +77,30 @@ public class ProcessRunner {
 	}
 	
 	public int startAndWaitForTermination() throws IOException, InterruptedException {
+		CompletableFuture<Integer> result = start();
+		try {
+			return result.get();
+		} catch(InterruptedException e) {
+			// Whoever wanted the command run has gone away
+			process.destroy();
+			throw e;
+		} catch(ExecutionException e) {
+			if(e.getCause() instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) e.getCause()).getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+	
+	/**
+	 * Starts the process and returns its exit code once it has exited and all
+	 * of its output has been read, or DRAIN_TIMEOUT after it exited if a
+	 * process it started is still holding its output streams open. The output
+	 * is read by threads from a pool shared by every ProcessRunner, which is
+	 * not bounded as each process needs a thread for each of its streams, and
+	 * one to wait for it, until it exits.
+	 */
+	public CompletableFuture<Integer> start() throws IOException {
 		
 		ProcessBuilder pb = new ProcessBuilder(args);
 		
@@ -63,32 +108,65 @@ public class ProcessRunner {
 			pb.environment().put(e.getKey(), e.getValue());
 		});
 		
+		if(directory != null) {
+			pb.directory(directory);
+		}
+		
+		// So that its output comes after anything logged before it started
+		Logger.flush();
 		
-		Process p = pb.start();
+		process = pb.start();
+		Process p = process;
 		
 		os = p.getOutputStream();
 		
-		ReadThread input = new ReadThread(p.getInputStream(), echoOutput ? System.out : null, ConsoleStream.OUT);
-		input.start();
+		CompletableFuture<Void> input = CompletableFuture.runAsync(
+				IDCDaemon.withOutput(new StreamReader(p.getInputStream(), echoOutput ? System.out : null, ConsoleStream.OUT)), IO_POOL);
 		
-		ReadThread err = new ReadThread(p.getErrorStream(), echoOutput ? System.err : null, ConsoleStream.ERR);
-		err.start();
+		CompletableFuture<Void> err = CompletableFuture.runAsync(
+				IDCDaemon.withOutput(new StreamReader(p.getErrorStream(), echoOutput ? System.err : null, ConsoleStream.ERR)), IO_POOL);
 
-		errorCode = Optional.of(p.waitFor());
-
-		while(!input.isFinished) {
-			Thread.sleep(200);
-		}
-		
-		return errorCode.get();
+		return CompletableFuture.supplyAsync(IDCDaemon.withOutput(() -> {
+			try {
+				int exitCode = p.waitFor();
+				try {
+					CompletableFuture.allOf(input, err).get(DRAIN_TIMEOUT, TimeUnit.MILLISECONDS);
+				} catch(TimeoutException e) {
+					// The readers carry on until whatever inherited the streams closes them
+					Logger.verbose("Stopped waiting for the output of " + args[0] + ", which is still open after it exited");
+				} catch(ExecutionException e) {
+					throw new CompletionException(e.getCause());
+				}
+				errorCode = Optional.of(exitCode);
+				return exitCode;
+			} catch(InterruptedException e) {
+				throw new CompletionException(e);
+			}
+		}), IO_POOL);
+	}
+	
+	/** The working directory for the process, by default that of this process. */
+	public void setDirectory(File directory) {
+		this.directory = directory;
 	}
 	
 	public Map<String, String> getEnvVars() {
 		return envVars;
 	}
 
+	/** The output the capture has kept, by default all of it. */
 	public String getReceived() {
-		return received.toString();
+		return capture.getText();
+	}
+
+	/** The lines of output the capture has kept, without splitting getReceived(). */
+	public List<String> getReceivedLines() {
+		return capture.getLines();
+	}
+
+	/** Sets which lines of output are kept, before the process is started. */
+	public void setCapture(OutputCapture capture) {
+		this.capture = capture;
 	}
 
 	public void addListener(IListener listener) {
@@ -111,18 +189,16 @@ public class ProcessRunner {
 		return errorCode;
 	}
 		
-	private class ReadThread extends Thread {
+	private class StreamReader implements Runnable {
 		
 		final InputStream is;
 		final PrintStream ps;
 		final ConsoleStream cs;
-		private boolean isFinished = false;
 		
-		public ReadThread(InputStream is, PrintStream ps, ConsoleStream cs) {
+		public StreamReader(InputStream is, PrintStream ps, ConsoleStream cs) {
 			this.is = is;
 			this.ps = ps;
 			this.cs = cs;
-			setDaemon(true);
 		}
 		
 		@Override
@@ -145,9 +221,7 @@ public class ProcessRunner {
 						ps.append(str+"\n");
 					}
 					
-					synchronized(received) {
-						received.append(str+"\n");
-					}
+					capture.add(str);
 					
 					
 					for(IListener listener : listeners) {
@@ -155,9 +229,8 @@ public class ProcessRunner {
 					}
 					
 				}
-				isFinished = true;
 			} catch (IOException e) {
-				e.printStackTrace();
+				throw new UncheckedIOException(e);
 			}
 			
 		}
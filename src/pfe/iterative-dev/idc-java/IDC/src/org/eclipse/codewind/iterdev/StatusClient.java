@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.iterdev;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+/**
+ * Sends requests to the portal's internal API, reusing connections between
+ * requests rather than opening a new one, with a new TLS handshake, for each.
+ *
+ * HttpURLConnection keeps a connection open for reuse once its response has
+ * been read to the end and closed, as long as disconnect() isn't called, and
+ * for https only if the next request uses the same SSLSocketFactory. So there
+ * is one client per process, with one SSLContext, built the first time it is
+ * used. The portal uses a self-signed certificate on localhost, so any
+ * certificate is trusted.
+ */
+public class StatusClient {
+
+	private static final String PORTAL_HTTPS = System.getenv().get("PORTAL_HTTPS");
+	private static final String PORTAL_PROTOCOL = "true".equals(PORTAL_HTTPS) ? "https" : "http";
+	private static final String PORTAL_PORT = "true".equals(PORTAL_HTTPS) ? "9191" : "9090";
+
+	private static volatile StatusClient instance;
+
+	private final String baseUrl;
+
+	private final SSLSocketFactory socketFactory;
+
+	private final HostnameVerifier hostnameVerifier = (hostname, session) -> true;
+
+	private StatusClient(String baseUrl, SSLSocketFactory socketFactory) {
+		this.baseUrl = baseUrl;
+		this.socketFactory = socketFactory;
+	}
+
+	public static StatusClient getInstance() {
+		if (instance == null) {
+			synchronized (StatusClient.class) {
+				if (instance == null) {
+					instance = new StatusClient(PORTAL_PROTOCOL + "://localhost:" + PORTAL_PORT,
+							"https".equals(PORTAL_PROTOCOL) ? trustAllSocketFactory() : null);
+				}
+			}
+		}
+		return instance;
+	}
+
+	private static SSLSocketFactory trustAllSocketFactory() {
+		try {
+			TrustManager[] trustAllCerts = new TrustManager[] { new X509TrustManager() {
+				public X509Certificate[] getAcceptedIssuers() {
+					return new X509Certificate[0];
+				}
+
+				public void checkClientTrusted(X509Certificate[] certs, String authType) {
+				}
+
+				public void checkServerTrusted(X509Certificate[] certs, String authType) {
+				}
+			} };
+
+			SSLContext sc = SSLContext.getInstance("SSL");
+			sc.init(null, trustAllCerts, new SecureRandom());
+			return sc.getSocketFactory();
+		} catch (Exception e) {
+			Logger.error("Fail to trust self-signed certificate for updating build/app status", e);
+			return null;
+		}
+	}
+
+	/** POSTs a JSON body to path. */
+	public Response post(String path, String json) throws IOException {
+		return send("POST", path, json.getBytes("UTF-8"));
+	}
+
+	public Response get(String path) throws IOException {
+		return send("GET", path, null);
+	}
+
+	private Response send(String method, String path, byte[] body) throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+		if (conn instanceof HttpsURLConnection && socketFactory != null) {
+			((HttpsURLConnection) conn).setSSLSocketFactory(socketFactory);
+			((HttpsURLConnection) conn).setHostnameVerifier(hostnameVerifier);
+		}
+		conn.setRequestMethod(method);
+		if (body != null) {
+			conn.setDoOutput(true);
+			conn.setFixedLengthStreamingMode(body.length);
+			conn.setRequestProperty("Content-Type", "application/json");
+			try (OutputStream out = conn.getOutputStream()) {
+				out.write(body);
+			}
+		}
+		int code = conn.getResponseCode();
+		String message = conn.getResponseMessage();
+		// Read the body to the end so that the connection can be reused
+		try (InputStream in = code < HttpURLConnection.HTTP_BAD_REQUEST ? conn.getInputStream() : conn.getErrorStream()) {
+			if (in != null) {
+				byte[] buffer = new byte[4096];
+				while (in.read(buffer) != -1) {
+					// discard
+				}
+			}
+		}
+		return new Response(code, message);
+	}
+
+	public static class Response {
+
+		private final int code;
+
+		private final String message;
+
+		Response(int code, String message) {
+			this.code = code;
+			this.message = message;
+		}
+
+		public int getCode() {
+			return code;
+		}
+
+		public String getMessage() {
+			return message;
+		}
+	}
+
+}
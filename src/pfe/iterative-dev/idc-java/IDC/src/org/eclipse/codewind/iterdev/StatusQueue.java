@@ -0,0 +1,191 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v20.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.codewind.iterdev;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sends status updates to the portal on a background thread, so that a build
+ * doesn't wait for the portal to answer each one.
+ *
+ * Updates are sent one at a time, in the order they were queued. Whatever has
+ * been queued while the previous updates were being sent is sent as the next
+ * batch, over the same kept alive connection. An update that hasn't been sent
+ * yet is dropped if a newer one with the same key is queued, for example the
+ * build state of the same project, and the newer one goes to the back of the
+ * queue, so it is never sent before updates queued ahead of it. Failed
+ * updates are retried with exponential backoff, unless they are superseded in
+ * the meantime, or the portal isn't listening at all.
+ *
+ * Before the process exits, updates still queued are given FLUSH_TIMEOUT to
+ * be sent, and then any errors logged in the meantime are flushed.
+ */
+public class StatusQueue {
+
+	private static final int MAX_ATTEMPTS = 6;
+
+	private static final long INITIAL_BACKOFF = 100;
+
+	private static final long MAX_BACKOFF = 5000;
+
+	private static final long FLUSH_TIMEOUT = 1000;
+
+	private static final StatusQueue INSTANCE = new StatusQueue();
+
+	/** Updates not yet being sent, by key, oldest first. */
+	private final LinkedHashMap<String, Update> pending = new LinkedHashMap<>();
+
+	private boolean sending = false;
+
+	private long sequence = 0;
+
+	private StatusQueue() {
+		Thread sender = new Thread(this::run, "idc-status-queue");
+		sender.setDaemon(true);
+		sender.start();
+		// Logger's own hook may run first, so it is flushed again once the updates have been sent
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			flush(FLUSH_TIMEOUT);
+			Logger.flush();
+		}));
+	}
+
+	public static StatusQueue getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Queues a POST of json to path, replacing any update with the same key
+	 * that hasn't been sent yet. A null key is never replaced.
+	 */
+	public void post(String key, String path, String json, String failureMessage) {
+		add(key, new Update(path, json, failureMessage));
+	}
+
+	/** Queues a GET of path, as post. */
+	public void get(String key, String path, String failureMessage) {
+		add(key, new Update(path, null, failureMessage));
+	}
+
+	private synchronized void add(String key, Update update) {
+		if (key == null) {
+			key = "#" + sequence++;
+		}
+		pending.remove(key);
+		pending.put(key, update);
+		notifyAll();
+	}
+
+	/** Waits up to timeout milliseconds for every queued update to be sent, returning whether they were. */
+	public synchronized boolean flush(long timeout) {
+		long end = System.currentTimeMillis() + timeout;
+		try {
+			while (sending || !pending.isEmpty()) {
+				long remaining = end - System.currentTimeMillis();
+				if (remaining <= 0) {
+					return false;
+				}
+				wait(remaining);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		return true;
+	}
+
+	private void run() {
+		try {
+			while (true) {
+				List<Map.Entry<String, Update>> batch;
+				synchronized (this) {
+					sending = false;
+					notifyAll();
+					while (pending.isEmpty()) {
+						wait();
+					}
+					sending = true;
+					batch = new ArrayList<>(pending.entrySet());
+					pending.clear();
+				}
+				for (Map.Entry<String, Update> e : batch) {
+					deliver(e.getKey(), e.getValue());
+				}
+			}
+		} catch (InterruptedException e) {
+			/* exit */
+		}
+	}
+
+	private void deliver(String key, Update update) throws InterruptedException {
+		long backoff = INITIAL_BACKOFF;
+		for (int attempt = 1;; attempt++) {
+			try {
+				StatusClient.Response response = update.send();
+				if (response.getCode() == HttpURLConnection.HTTP_OK) {
+					return;
+				}
+				Logger.error(update.failureMessage + ", with code: " + response.getCode() + ", and message: "
+						+ response.getMessage());
+				if (response.getCode() < HttpURLConnection.HTTP_INTERNAL_ERROR) {
+					// The portal won't accept it however often it's sent
+					return;
+				}
+			} catch (ConnectException e) {
+				// Nothing is listening, so retrying would only hold up the updates behind it
+				Logger.error(update.failureMessage, e);
+				return;
+			} catch (IOException e) {
+				if (attempt == MAX_ATTEMPTS) {
+					Logger.error(update.failureMessage, e);
+				}
+			}
+			if (attempt == MAX_ATTEMPTS) {
+				return;
+			}
+			Thread.sleep(backoff);
+			backoff = Math.min(backoff * 2, MAX_BACKOFF);
+			synchronized (this) {
+				if (pending.containsKey(key)) {
+					// Superseded while waiting to retry
+					return;
+				}
+			}
+		}
+	}
+
+	private static class Update {
+
+		private final String path;
+
+		private final String json;
+
+		private final String failureMessage;
+
+		Update(String path, String json, String failureMessage) {
+			this.path = path;
+			this.json = json;
+			this.failureMessage = failureMessage;
+		}
+
+		StatusClient.Response send() throws IOException {
+			return json != null ? StatusClient.getInstance().post(path, json) : StatusClient.getInstance().get(path);
+		}
+	}
+
+}
@@ -12,25 +12,14 @@
 package org.eclipse.codewind.iterdev;
 
 import java.io.IOException;
-import java.net.HttpURLConnection;
-import java.net.URL;
-
-import javax.net.ssl.HostnameVerifier;
-import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.SSLSession;
-import javax.net.ssl.TrustManager;
-import javax.net.ssl.X509TrustManager;
-import java.security.SecureRandom;
-import java.security.cert.X509Certificate;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class StatusTracker extends Object {
 
     private IDCContext context;
     private ProcessRunner processRunner;
-    private static String PORTAL_HTTPS = System.getenv().get("PORTAL_HTTPS");
-    private static String PORTAL_PROTOCOL = "true".equals(PORTAL_HTTPS) ? "https" : "http";
-    private static String PORTAL_PORT = "true".equals(PORTAL_HTTPS) ? "9191" : "9090";
+    private static final String UPDATE_STATUS_PATH = "/internal/api/v1/projects/updateStatus";
 
     public StatusTracker(IDCContext context, ProcessRunner processRunner) {
         this.context = context;
@@ -43,166 +32,122 @@ public class StatusTracker extends Object {
        processRunner.startAndWaitForTermination();
     }
 
+    /** Liberty message codes are CWWK, a component letter, four digits and a severity letter. */
+    private static final String MESSAGE_CODE_PREFIX = "CWWK";
+    private static final int MESSAGE_CODE_LENGTH = 10;
+
+    /** The app state each Liberty message code means, or IGNORE for those that don't change it. */
+    private static final Map<String, AppState> MESSAGE_STATES = new ConcurrentHashMap<>();
+
+    private static final AppState IGNORE = new AppState(null, null);
+
+    static {
+        // The application status will be updated to started in FW projectStatusController.pingApplication()
+        mapMessageCode("CWWKZ0001I", IGNORE); // Application {0} started in {1} seconds.
+        mapMessageCode("CWWKZ0003I", IGNORE); // The application {0} updated in {1} seconds.
+        mapMessageCode("CWWKZ0062I", IGNORE); // The {0} application has been updated, but not restarted.
+
+        mapMessageCode("CWWKZ0018I", new AppState("starting", null)); // Starting application {0}.
+        mapMessageCode("CWWKT0017I", new AppState("stopping", null)); // Web application removed (default_host): {0}
+        mapMessageCode("CWWKZ0009I", new AppState("stopped", null)); // The application {0} has stopped successfully.
+
+        AppState notStarted = new AppState("stopped", "projectStatusController.appStatusContainerStopped");
+        mapMessageCode("CWWKZ0002E", notStarted); // An exception occurred while starting the application {0}. The exception message was: {1}
+        mapMessageCode("CWWKZ0005E", notStarted); // The application {0} cannot start because the server is not configured to handle applications of type {1}.
+        mapMessageCode("CWWKZ0012I", notStarted); // The application {0} was not started.
+        mapMessageCode("CWWKZ0004E", notStarted); // An exception occurred while starting the application {0}. The exception message was: {1}
+        mapMessageCode("CWWKZ0020I", notStarted); // Application {0} not updated.
+        mapMessageCode("CWWKZ0014W", notStarted); // The application {0} could not be started as it could not be found at location {1}.
+
+        // An exception occurred while stopping the application {0}. The exception message was: {1}
+        mapMessageCode("CWWKZ0010E", new AppState("unknown", "projectStatusController.appErrorWhenStopping"));
+    }
+
+    /** Sets the app state a Liberty message code means, replacing any it had. */
+    public static void mapMessageCode(String code, AppState state) {
+        if (code.length() != MESSAGE_CODE_LENGTH || !code.startsWith(MESSAGE_CODE_PREFIX)) {
+            throw new IllegalArgumentException("Not a Liberty message code: " + code);
+        }
+        MESSAGE_STATES.put(code, state);
+    }
+
+    /**
+     * The app state for the first known message code in a line of the server
+     * log, or null if there isn't one. Lines without a message code, most of
+     * them, cost a single indexOf.
+     */
+    static AppState classify(String line) {
+        int index = line.indexOf(MESSAGE_CODE_PREFIX);
+        while (index != -1 && index + MESSAGE_CODE_LENGTH <= line.length()) {
+            AppState state = MESSAGE_STATES.get(line.substring(index, index + MESSAGE_CODE_LENGTH));
+            if (state != null) {
+                return state;
+            }
+            index = line.indexOf(MESSAGE_CODE_PREFIX, index + 1);
+        }
+        return null;
+    }
+
+    public static class AppState {
+
+        private final String state;
+        private final String msg;
+
+        public AppState(String state, String msg) {
+            this.state = state;
+            this.msg = msg;
+        }
+    }
+
     private class StatusListener implements IListener {
         public void receiveText(String sr) { 
-            if (sr.contains("CWWKZ0001I") || sr.contains("CWWKZ0003I") || sr.contains("CWWKZ0062I")) {
-                // CWWKZ0001I: Application {0} started in {1} seconds.
-                // CWWKZ0003I: The application {0} updated in {1} seconds.
-                // CWWKZ0062I: The {0} application has been updated, but not restarted.
-                // The application status will be updated to started in FW projectStatusController.pingApplication()
-            } else if (sr.contains("CWWKZ0018I")) {
-                // CWWKZ0018I: Starting application {0}.
-                updateProjectState(context, "app", "starting", null, null);
-            } else if (sr.contains("CWWKT0017I")) {
-                // CWWKT0017I: Web application removed (default_host): {0}
-                updateProjectState(context, "app", "stopping", null, null);
-            } else if (sr.contains("CWWKZ0009I")) {
-                // CWWKZ0009I: The application {0} has stopped successfully.
-                updateProjectState(context, "app", "stopped", null, null);
-            } else if (sr.contains("CWWKZ0002E") || sr.contains("CWWKZ0005E") || sr.contains("CWWKZ0012I") || sr.contains("CWWKZ0004E") || sr.contains("CWWKZ0020I") || sr.contains("CWWKZ0014W")) {
-                // CWWKZ0002E: An exception occurred while starting the application {0}. The exception message was: {1}
-                // CWWKZ0005E: The application {0} cannot start because the server is not configured to handle applications of type {1}.
-                // CWWKZ0012I: The application {0} was not started.
-                // CWWKZ0004E: An exception occurred while starting the application {0}. The exception message was: {1}
-                // CWWKZ0020I: Application {0} not updated.
-                // CWWKZ0014W: The application {0} could not be started as it could not be found at location {1}.
-                updateProjectState(context, "app", "stopped", "projectStatusController.appStatusContainerStopped", null);
-            } else if (sr.contains("CWWKZ0010E")) {
-                // CWWKZ0010E: An exception occurred while stopping the application {0}. The exception message was: {1}
-                updateProjectState(context, "app", "unknown", "projectStatusController.appErrorWhenStopping", null);
+            AppState appState = classify(sr);
+            if (appState != null && appState != IGNORE) {
+                updateProjectState(context, "app", appState.state, appState.msg, null);
             }
         }
     }
     
     public static void updateProjectState(IDCContext context, String stateType, String state, String msg, String imageLastBuild) {
-        HttpURLConnection conn = null;
         if (stateType == "build") {
             Logger.info("Updating build state for project " + context.getAppName() + "(" + context.getprojectID() + ") to: " + state);
-            try {
-                URL url = new URL(PORTAL_PROTOCOL + "://localhost:" + PORTAL_PORT + "/internal/api/v1/projects/updateStatus");
-                String json;
-                if (msg == null || msg.isEmpty()) {
-                    json = "{\"projectID\": \"" + context.getprojectID() + "\", \"buildStatus\": \"" + state + "\" , \"type\": \"buildState\"}";
-                } else if (imageLastBuild == null || imageLastBuild.isEmpty()){
-                    json = "{\"projectID\": \"" + context.getprojectID() + "\", \"buildStatus\": \"" + state + "\", \"detailedBuildStatus\": \"" + msg + "\",  \"type\": \"buildState\"}";
-                } else{
-                    json = "{\"projectID\": \"" + context.getprojectID() + "\", \"buildStatus\": \"" + state + "\", \"detailedBuildStatus\": \"" + msg + "\", \"appImageLastBuild\": \"" + imageLastBuild + "\",  \"type\": \"buildState\"}";
-                }
-                byte[] bytes = json.getBytes();
-
-                trustAllCertificates();
-    
-                conn = (HttpURLConnection) url.openConnection();
-                conn.setRequestMethod("POST");
-                conn.setDoOutput(true);
-                conn.setFixedLengthStreamingMode(bytes.length);
-                conn.setRequestProperty("Content-Type", "application/json");
-                conn.connect();
-                conn.getOutputStream().write(bytes);
-                int code = conn.getResponseCode();
-                if (code != HttpURLConnection.HTTP_OK) {
-                    Logger.error("Update build state request failed for project: " + context.getAppName() + "(" + context.getprojectID() + "), with code: " + code + ", and message: " + conn.getResponseMessage());
-                }
-            } catch (Exception e) {
-                Logger.error("Update build state request failed for project: " + context.getAppName() + "(" + context.getprojectID() + ")",  e);
-            } finally {
-                if (conn != null) {
-                    conn.disconnect();
-                }
+            String json;
+            String key = context.getprojectID() + "/build";
+            if (msg == null || msg.isEmpty()) {
+                json = "{\"projectID\": \"" + context.getprojectID() + "\", \"buildStatus\": \"" + state + "\" , \"type\": \"buildState\"}";
+            } else if (imageLastBuild == null || imageLastBuild.isEmpty()){
+                json = "{\"projectID\": \"" + context.getprojectID() + "\", \"buildStatus\": \"" + state + "\", \"detailedBuildStatus\": \"" + msg + "\",  \"type\": \"buildState\"}";
+            } else{
+                json = "{\"projectID\": \"" + context.getprojectID() + "\", \"buildStatus\": \"" + state + "\", \"detailedBuildStatus\": \"" + msg + "\", \"appImageLastBuild\": \"" + imageLastBuild + "\",  \"type\": \"buildState\"}";
+                // Later build states don't carry the image build time, so this one is always sent
+                key = null;
             }
+
+            StatusQueue.getInstance().post(key, UPDATE_STATUS_PATH, json,
+                    "Update build state request failed for project: " + context.getAppName() + "(" + context.getprojectID() + ")");
         }
         else {
             Logger.info("Updating app state for project " + context.getAppName() + "(" + context.getprojectID() + ") to: " + state);
-            try {
-                URL url = new URL(PORTAL_PROTOCOL + "://localhost:" + PORTAL_PORT + "/internal/api/v1/projects/updateStatus");
-        
-                String json;
-                if (msg == null || msg.isEmpty()) {
-                    json = "{\"projectID\": \"" + context.getprojectID() + "\", \"status\": \"" + state + "\", \"type\": \"appState\"}";
-                } else {
-                    json = "{\"projectID\": \"" + context.getprojectID() + "\", \"status\": \"" + state + "\", \"error\": \"" + msg + "\", \"type\": \"appState\"}";
-                }
-                byte[] bytes = json.getBytes();
-
-                trustAllCertificates();
-    
-                conn = (HttpURLConnection) url.openConnection();
-                conn.setRequestMethod("POST");
-                conn.setDoOutput(true);
-                conn.setFixedLengthStreamingMode(bytes.length);
-                conn.setRequestProperty("Content-Type", "application/json");
-                conn.connect();
-                conn.getOutputStream().write(bytes);
-                int code = conn.getResponseCode();
-                if (code != HttpURLConnection.HTTP_OK) {
-                    Logger.error("Update app state request failed for project: " + context.getAppName() + "(" + context.getprojectID() + "), with code: " + code + ", and message: " + conn.getResponseMessage());
-                }
-            } catch (Exception e) {
-                Logger.error("Update app state request failed for project: " + context.getAppName() + "(" + context.getprojectID() + ")",  e);
-            } finally {
-                if (conn != null) {
-                    conn.disconnect();
-                }
+            String json;
+            if (msg == null || msg.isEmpty()) {
+                json = "{\"projectID\": \"" + context.getprojectID() + "\", \"status\": \"" + state + "\", \"type\": \"appState\"}";
+            } else {
+                json = "{\"projectID\": \"" + context.getprojectID() + "\", \"status\": \"" + state + "\", \"error\": \"" + msg + "\", \"type\": \"appState\"}";
             }
+
+            StatusQueue.getInstance().post(context.getprojectID() + "/app", UPDATE_STATUS_PATH, json,
+                    "Update app state request failed for project: " + context.getAppName() + "(" + context.getprojectID() + ")");
         }
     }
 
     public static void newLogFileAvailable(IDCContext context, String logType) {
-        HttpURLConnection conn = null;
         String apiEndPoint = "/logs/";
-        String urlString = PORTAL_PROTOCOL + "://localhost:" + PORTAL_PORT + "/internal/api/v1/projects/" + context.getprojectID() + apiEndPoint;
+        String path = "/internal/api/v1/projects/" + context.getprojectID() + apiEndPoint;
 
          if (logType == "build" || logType == "app") {
-            urlString = urlString + logType;
-            try {
-                URL url = new URL(urlString);
-
-                 trustAllCertificates();
-
-                 conn = (HttpURLConnection) url.openConnection();
-                conn.setRequestMethod("GET");
-
-                 int responseCode = conn.getResponseCode();
-                if (responseCode != HttpURLConnection.HTTP_OK) {
-                    Logger.error("Update app state request failed for project: " + context.getAppName() + "(" + context.getprojectID() + "), with code: " + responseCode + ", and message: " + conn.getResponseMessage());
-                }
-            } catch (Exception e) {
-                Logger.error("New log file available request failed for project: " + context.getAppName() + "(" + context.getprojectID() + ")",  e);
-            } finally {
-                if (conn != null) {
-                    conn.disconnect();
-                }
-            }
-        }
-    }
-
-    public static void trustAllCertificates() {
-        try {
-            TrustManager[] trustAllCerts = new TrustManager[]{
-				new X509TrustManager() {
-					public X509Certificate[] getAcceptedIssuers() {
-						X509Certificate[] myTrustedAnchors = new X509Certificate[0];
-						return myTrustedAnchors;
-					}
-					
-					public void checkClientTrusted(X509Certificate[] certs, String authType) {
-					}
-					
-					public void checkServerTrusted(X509Certificate[] certs, String authType) {
-					}
-				}
-			};
-
-			SSLContext sc = SSLContext.getInstance("SSL");
-			sc.init(null, trustAllCerts, new SecureRandom());
-			HttpsURLConnection.setDefaultSSLSocketFactory(sc.getSocketFactory());
-			HttpsURLConnection.setDefaultHostnameVerifier(new HostnameVerifier() {
-				public boolean verify(String arg0, SSLSession arg1) {
-					return true;
-				}
-			});
-		} catch (Exception e) {
-            Logger.error("Fail to trust self-signed certificate for updating build/app status", e);
+            path = path + logType;
+            StatusQueue.getInstance().get(context.getprojectID() + "/logs/" + logType, path,
+                    "New log file available request failed for project: " + context.getAppName() + "(" + context.getprojectID() + ")");
         }
     }
 }
@@ -16,12 +16,23 @@ import org.eclipse.codewind.iterdev.DBMap;
 import org.eclipse.codewind.iterdev.FileMonitor;
 import org.eclipse.codewind.iterdev.IDCContext;
 import org.eclipse.codewind.iterdev.Logger;
+import org.eclipse.codewind.iterdev.Metrics;
+import org.eclipse.codewind.iterdev.OutputCapture;
 import org.eclipse.codewind.iterdev.ProcessRunner;
 import org.eclipse.codewind.iterdev.StatusTracker;
 
 public class BuildApplicationTask {
 
 	public static boolean execute(IDCContext context, String[] args) throws Exception {
+		Metrics.Span span = Metrics.span(context, "applicationBuild");
+		try {
+			return build(context, args);
+		} finally {
+			span.close();
+		}
+	}
+
+	private static boolean build(IDCContext context, String[] args) throws Exception {
 		String logFileName = context.getLogFileName();
 		String MAVEN_SETTINGS = System.getProperty(Constants.MAVEN_SETTINGS, "");
 		String libertyEnv = context.getIDCConfiguration().getProperty("libertyEnv");
@@ -68,10 +79,15 @@ public class BuildApplicationTask {
 				context.getAppDirectory().getAbsolutePath());
 		if (curNewPomUpdateHash != null) {
 			Logger.info("pom.xml file change detected.");
-			appDb.put(FileMonitor.POMCHANGE_HASH, curNewPomUpdateHash);
 		}
 
 		if (commandContainsOption(args, Constants.OPTION_CLEAN) || curNewPomUpdateHash != null) {
+			// The pom and config hashes are stored together once the build is going ahead
+			DBMap.Transaction dbChanges = appDb.begin();
+			if (curNewPomUpdateHash != null) {
+				dbChanges.put(FileMonitor.POMCHANGE_HASH, curNewPomUpdateHash);
+			}
+
 			if (curNewPomUpdateHash != null) {
 				Logger.info("pom.xml change detected, running clean build for project " + context.getAppName());
 				statusMsg = "buildApplicationTask.pomChangeDetected";
@@ -83,6 +99,7 @@ public class BuildApplicationTask {
 			StatusTracker.updateProjectState(context, "build", "inProgress", statusMsg, null);
 			
 			if (!Boolean.parseBoolean(appDb.get(Constants.DB_CONTAINER_BUILT))) {
+				dbChanges.commit();
 				statusMsg = "buildApplicationTask.containerNotRunning";
 				Logger.error("The container is not running for project " + context.getAppName());
 				StatusTracker.updateProjectState(context, "build", "failed", statusMsg, null);
@@ -92,11 +109,13 @@ public class BuildApplicationTask {
 			String curNewConfigUpdateHash = FileMonitor.getNewConfigUpdateHash(appDb,
 					context.getAppDirectory().getAbsolutePath());
 			if (curNewConfigUpdateHash != null) {
-				appDb.put(FileMonitor.CONFIGUPDATE_HASH, curNewConfigUpdateHash);
+				dbChanges.put(FileMonitor.CONFIGUPDATE_HASH, curNewConfigUpdateHash);
 			}
+			dbChanges.commit();
 			
 			ProcessRunner pr = TaskUtils.runCmd(cmdTemplate + " /home/default/artifacts/clean_build_server.sh"
-							+ " " + logFileName + " " + libertyEnvValue + " \"" + MAVEN_SETTINGS + "\"", context, true);
+							+ " " + logFileName + " " + libertyEnvValue + " \"" + MAVEN_SETTINGS + "\"", context, true,
+							OutputCapture.none());
 			errorCode = pr.getErrorCode().orElseThrow(() -> new IllegalStateException("Build process did not complete."));
 			result = (errorCode == 0 && (!isBuildFailed(cmdTemplate,logFileName, context)));
 			if (result) {
@@ -124,7 +143,8 @@ public class BuildApplicationTask {
 				appDb.put(FileMonitor.CONFIGUPDATE_HASH, curNewConfigUpdateHash);
 				
 				ProcessRunner pr = TaskUtils.runCmd(cmdTemplate + " /home/default/artifacts/build_and_update_features.sh"
-								+ " " + logFileName + " " + libertyEnvValue + " \"" + MAVEN_SETTINGS + "\"", context, true);
+								+ " " + logFileName + " " + libertyEnvValue + " \"" + MAVEN_SETTINGS + "\"", context, true,
+							OutputCapture.none());
 				errorCode = pr.getErrorCode().orElseThrow(() -> new IllegalStateException("Build process did not complete."));
 				result = (errorCode == 0 && (!isBuildFailed(cmdTemplate,logFileName, context)));
 				if (result) {
@@ -157,7 +177,7 @@ public class BuildApplicationTask {
 			return false;
 		}
 
-		ProcessRunner pr = TaskUtils.runCmd(curRunCmd, context, true);
+		ProcessRunner pr = TaskUtils.runCmd(curRunCmd, context, true, OutputCapture.none());
 
 		Logger.info("Triggering log file event for: maven build log");
 		StatusTracker.newLogFileAvailable(context, "build");
@@ -178,10 +198,15 @@ public class BuildApplicationTask {
 	}
 
 	public static boolean touchLogFile(String cmdTemplate, String logFilePath, IDCContext context) throws Exception {
-		String curRunCmd = cmdTemplate + " touch " + logFilePath;
-		ProcessRunner pr = TaskUtils.runCmd(curRunCmd, context, true);
-		String buildOutput = pr.getReceived();
-		return !buildOutput.contains("No such file or directory");
+		Metrics.Span span = Metrics.span(context, "touchLogFile");
+		try {
+			String curRunCmd = cmdTemplate + " touch " + logFilePath;
+			ProcessRunner pr = TaskUtils.runCmd(curRunCmd, context, true);
+			String buildOutput = pr.getReceived();
+			return !buildOutput.contains("No such file or directory");
+		} finally {
+			span.close();
+		}
 	}
 
 	private static boolean commandContainsOption(String args[], String curOption) {
@@ -202,13 +227,23 @@ public class BuildApplicationTask {
 	}
 
 	private static boolean isBuildFailed(String cmdTemplate, String logFileName, IDCContext context) throws Exception {
+		Metrics.Span span = Metrics.span(context, "isBuildFailed");
+		try {
+			return isBuildLogFailed(cmdTemplate, logFileName, context);
+		} finally {
+			span.close();
+		}
+	}
+
+	private static boolean isBuildLogFailed(String cmdTemplate, String logFileName, IDCContext context) throws Exception {
 		String logFilePath = "/home/default/logs/" + "maven.build.log";
 		String curRunCmd;
 		if (context.isK8s())
 			curRunCmd = "kubectl exec " + context.getKubePodId() + " cat "+ logFilePath;
 		else
 			curRunCmd = cmdTemplate + " cat "+ logFilePath;
-		ProcessRunner pr = TaskUtils.runCmd(curRunCmd, context, true);
+		ProcessRunner pr = TaskUtils.runCmd(curRunCmd, context, true,
+				OutputCapture.matching("No such file or directory|BUILD SUCCESS"));
 		String buildOutput = pr.getReceived();
 
 		// If build log does not exist
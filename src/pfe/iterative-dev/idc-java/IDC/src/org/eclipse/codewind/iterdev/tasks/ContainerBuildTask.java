@@ -19,12 +19,23 @@ import org.eclipse.codewind.iterdev.DockerUtils;
 import org.eclipse.codewind.iterdev.IDCContext;
 import org.eclipse.codewind.iterdev.IDCUtils;
 import org.eclipse.codewind.iterdev.Logger;
+import org.eclipse.codewind.iterdev.Metrics;
+import org.eclipse.codewind.iterdev.OutputCapture;
 import org.eclipse.codewind.iterdev.ProcessRunner;
 import org.eclipse.codewind.iterdev.StatusTracker;
 
 public class ContainerBuildTask {
 
     public static boolean execute(IDCContext context) throws IOException, InterruptedException {
+        Metrics.Span span = Metrics.span(context, "containerBuild");
+        try {
+            return build(context);
+        } finally {
+            span.close();
+        }
+    }
+
+    private static boolean build(IDCContext context) throws IOException, InterruptedException {
         String statusMsg = "containerBuildTask.containerBuild";
         Logger.info("Building container image");
         StatusTracker.updateProjectState(context, "build", "inProgress", statusMsg, null);
@@ -80,7 +91,8 @@ public class ContainerBuildTask {
         Logger.info("Build app image using cmd: " + buildCmd);
 
         // "iterative-dev" here is the container image name, not the container name
-        ProcessRunner pr = TaskUtils.runCmd(buildCmd, context, true);
+        ProcessRunner pr = TaskUtils.runCmd(buildCmd, context, true,
+                OutputCapture.matching("Directory not empty|Successfully built"));
 
         int errorCode = pr.getErrorCode()
                 .orElseThrow(() -> new IllegalStateException("Build process did not complete."));
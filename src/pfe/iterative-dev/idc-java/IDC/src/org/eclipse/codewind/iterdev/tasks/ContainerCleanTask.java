@@ -12,11 +12,11 @@
 package org.eclipse.codewind.iterdev.tasks;
 
 import java.io.File;
-import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 
 import org.eclipse.codewind.iterdev.Constants;
-import org.eclipse.codewind.iterdev.DBMap;
+import org.eclipse.codewind.iterdev.DBIndex;
 import org.eclipse.codewind.iterdev.IDCContext;
 import org.eclipse.codewind.iterdev.IDCUtils;
 import org.eclipse.codewind.iterdev.Logger;
@@ -33,7 +33,7 @@ public class ContainerCleanTask {
 		if (context.isK8s()) {
 			if (!context.getIDCBase().exists()) {
 				ProcessRunner pr = TaskUtils.runCmd("helm list -q", context, false);
-				for (String str : pr.getReceived().split("\\r?\\n")) {
+				for (String str : pr.getReceivedLines()) {
 					Logger.info("----");
 					Logger.info("Helm Release Name: " + str);
 					Logger.info("----");
@@ -52,20 +52,16 @@ public class ContainerCleanTask {
 				 * container. Print the modified/deleted dir container id and prompt the user before 
 				 * removing the container.
 				 */
-				String dbDirPath = context.getIDCBase().toString() + Constants.SLASH + "db";
-				File dbDir = new File(dbDirPath);
-				File dbFiles[] = dbDir.listFiles();
+				Collection<DBIndex.Entry> apps = DBIndex.forBase(context.getIDCBase()).getEntries().values();
 
-				for (int i = 0; i < dbFiles.length; i++) {
-					DBMap appDB = new DBMap(dbFiles[i].getName().substring(DBMap.DBPREFIX.length()), context.getIDCBase());
-
-					String fileName = appDB.get(Constants.DB_APP_DIR);
+				for (DBIndex.Entry app : apps) {
+					String fileName = app.getAppDir();
 					if(fileName == null)
 						continue;
 					Logger.info("checking if filename is present: " + fileName);
 					File appDir = new File(fileName);
 					if (!appDir.exists()) {
-						String releaseID = appDB.get(Constants.DB_HELM_RELEASE);
+						String releaseID = app.getHelmRelease();
 						Logger.info("----");
 						Logger.info("Missing Application Directory: " + fileName);
 						Logger.info("Helm Release: " + releaseID);
@@ -74,10 +70,10 @@ public class ContainerCleanTask {
 							Logger.info("* Deleting the Helm release. ");
 
 							TaskUtils.runCmd("helm delete " + releaseID, context, false);
-							TaskUtils.runCmd(imageCommand + " image rm " + appDB.get(Constants.DB_CONTAINER_NAME) + " -f", context, false);
+							TaskUtils.runCmd(imageCommand + " image rm " + app.getImageName() + " -f", context, false);
 
 							// Delete .idc db and docker dir contents
-							deleteCorrespondingIDCContents(context.getIDCBase(), appDB.get(Constants.DB_APP_ID));
+							ContainerRemoveTask.deleteCorrespondingIDCContents(context.getIDCBase(), app.getAppId());
 						}
 					}
 				}
@@ -93,15 +89,14 @@ public class ContainerCleanTask {
 				ProcessRunner pr = TaskUtils.runCmd("kubectl get deployments --no-headers=true -o=custom-columns=NAME:.metadata.name", context, false);
 
 				Thread.sleep(1000);
-				for (String str : pr.getReceived().split("\\r?\\n")) {
+				for (String str : pr.getReceivedLines()) {
 					if (str != null) {
 						runningDeployments.add(str);
 					}
 				}
 
-				nextdbfile : for (int i = 0; i < dbFiles.length; i++) {
-					DBMap appDB = new DBMap(dbFiles[i].getName().substring(DBMap.DBPREFIX.length()), context.getIDCBase());
-					String deploymentID = appDB.get(Constants.DB_LAST_CONTAINER_ID);
+				nextdbfile : for (DBIndex.Entry app : apps) {
+					String deploymentID = app.getLastContainerId();
 					if(deploymentID == null)
 						continue nextdbfile;
 					Logger.info("Checking for deployment " + deploymentID);
@@ -113,8 +108,8 @@ public class ContainerCleanTask {
 					}
 
 					// Delete .idc db and docker dir contents
-					Logger.info("Deleting db contents with app id: " + appDB.get(Constants.DB_APP_ID));
-					deleteCorrespondingIDCContents(context.getIDCBase(), appDB.get(Constants.DB_APP_ID));
+					Logger.info("Deleting db contents with app id: " + app.getAppId());
+					ContainerRemoveTask.deleteCorrespondingIDCContents(context.getIDCBase(), app.getAppId());
 				}
 				
 				
@@ -132,7 +127,7 @@ public class ContainerCleanTask {
 				ProcessRunner pr = TaskUtils.runCmd(imageCommand + " ps --format \"{{.Image}}\"", context, false);
 
 				Thread.sleep(1000);
-				for (String str : pr.getReceived().split("\\r?\\n")) {
+				for (String str : pr.getReceivedLines()) {
 					Logger.info("----");
 					Logger.info("Container Image Name: " + str);
 					Logger.info("----");
@@ -154,20 +149,16 @@ public class ContainerCleanTask {
 				 * container. Print the modified/deleted dir container id and prompt the user before 
 				 * removing the container.
 				 */
-				String dbDirPath = context.getIDCBase().toString() + Constants.SLASH + "db";
-				File dbDir = new File(dbDirPath);
-				File dbFiles[] = dbDir.listFiles();
-
-				for (int i = 0; i < dbFiles.length; i++) {
-					DBMap appDB = new DBMap(dbFiles[i].getName().substring(DBMap.DBPREFIX.length()), context.getIDCBase());
+				Collection<DBIndex.Entry> apps = DBIndex.forBase(context.getIDCBase()).getEntries().values();
 
-					String fileName = appDB.get(Constants.DB_APP_DIR);
+				for (DBIndex.Entry app : apps) {
+					String fileName = app.getAppDir();
 					if(fileName == null)
 						continue;
 					Logger.info("checking if filename is present: " + fileName);
 					File appDir = new File(fileName);
 					if (!appDir.exists()) {
-						String containerID = appDB.get(Constants.DB_LAST_CONTAINER_ID);
+						String containerID = app.getLastContainerId();
 						Logger.info("----");
 						Logger.info("Missing Application Directory: " + fileName);
 						Logger.info("Container ID: " + containerID);
@@ -176,11 +167,11 @@ public class ContainerCleanTask {
 							Logger.info("* Stopping and Removing the Container. ");
 
 							TaskUtils.runCmd(imageCommand + " rm -f " + containerID, context, false);
-							TaskUtils.runCmd(imageCommand + " image rm " + appDB.get(Constants.DB_CONTAINER_NAME), context,
+							TaskUtils.runCmd(imageCommand + " image rm " + app.getImageName(), context,
 									false);
 
 							// Delete .idc db and docker dir contents
-							deleteCorrespondingIDCContents(context.getIDCBase(), appDB.get(Constants.DB_APP_ID));
+							ContainerRemoveTask.deleteCorrespondingIDCContents(context.getIDCBase(), app.getAppId());
 						}
 					}
 				}
@@ -196,15 +187,14 @@ public class ContainerCleanTask {
 				ProcessRunner pr = TaskUtils.runCmd(imageCommand + " ps --no-trunc -q", context, false);
 
 				Thread.sleep(1000);
-				for (String str : pr.getReceived().split("\\r?\\n")) {
+				for (String str : pr.getReceivedLines()) {
 					if (str != null) {
 						runningContainers.add(str);
 					}
 				}
 
-				nextdbfile : for (int i = 0; i < dbFiles.length; i++) {
-					DBMap appDB = new DBMap(dbFiles[i].getName().substring(DBMap.DBPREFIX.length()), context.getIDCBase());
-					String containerID = appDB.get(Constants.DB_LAST_CONTAINER_ID);
+				nextdbfile : for (DBIndex.Entry app : apps) {
+					String containerID = app.getLastContainerId();
 					if(containerID == null)
 						continue nextdbfile;
 					Logger.info("Checking for container " + containerID);
@@ -216,8 +206,8 @@ public class ContainerCleanTask {
 					}
 
 					// Delete .idc db and docker dir contents
-					Logger.info("Deleting db contents with app id: " + appDB.get(Constants.DB_APP_ID));
-					deleteCorrespondingIDCContents(context.getIDCBase(), appDB.get(Constants.DB_APP_ID));
+					Logger.info("Deleting db contents with app id: " + app.getAppId());
+					ContainerRemoveTask.deleteCorrespondingIDCContents(context.getIDCBase(), app.getAppId());
 				}
 
 			}
@@ -227,36 +217,4 @@ public class ContainerCleanTask {
 		
 	}
 
-	private static void deleteCorrespondingIDCContents(File IDC_BASE, String appid) throws IOException {
-
-		File IDC_DB_DIR = new File(IDC_BASE.toString() + Constants.SLASH + "db");
-		File IDC_DOCKER_DIR = new File(IDC_BASE.toString() + Constants.SLASH + "docker");
-		File delFile = null;
-
-		String dBContents[] = IDC_DB_DIR.list();
-		String dockerContents[] = IDC_DOCKER_DIR.list();
-
-		//Delete IDC DIR DB CONTENTS
-		for (int i = 0; i < dBContents.length; i++) {
-
-			if (dBContents[i].contains(appid)) {
-				delFile = new File(IDC_DB_DIR.toString() + Constants.SLASH + dBContents[i]);
-				if (IDCUtils.deleteFile(delFile)) {
-					Logger.info("The corresponding IDC container metadata content was deleted.");
-				}
-			}
-		}
-
-		//Delete IDC DIR DOCKER CONTENTS
-		for (int i = 0; i < dockerContents.length; i++) {
-
-			if (dockerContents[i].contains(appid)) {
-				delFile = new File(IDC_DOCKER_DIR.toString() + Constants.SLASH + dockerContents[i]);
-				if (IDCUtils.deleteFile(delFile)) {
-					Logger.info("The corresponding IDC image metadata content was deleted.");
-				}
-			}
-		}
-	}
-
 }
@@ -43,8 +43,10 @@ public class ContainerRefreshTask {
             }
             // Erase the container image
             TaskUtils.runCmd(imageCommand + " rmi -f " + context.getImageName(), context, true);
-            appDb.put(Constants.DB_CONTAINER_BUILT, Boolean.FALSE.toString());
-            appDb.put(Constants.DB_MASTER_DOCKER_FILE_HASH, null);
+            appDb.begin()
+                    .put(Constants.DB_CONTAINER_BUILT, Boolean.FALSE.toString())
+                    .remove(Constants.DB_MASTER_DOCKER_FILE_HASH)
+                    .commit();
 
             Logger.info("The container has been refreshed.");
         } catch (Exception e) {
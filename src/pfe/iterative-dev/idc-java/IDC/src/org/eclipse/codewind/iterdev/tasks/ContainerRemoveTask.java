@@ -13,8 +13,11 @@ package org.eclipse.codewind.iterdev.tasks;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 
 import org.eclipse.codewind.iterdev.Constants;
+import org.eclipse.codewind.iterdev.DBIndex;
+import org.eclipse.codewind.iterdev.DBLock;
 import org.eclipse.codewind.iterdev.DBMap;
 import org.eclipse.codewind.iterdev.IDCContext;
 import org.eclipse.codewind.iterdev.IDCUtils;
@@ -106,8 +109,8 @@ public class ContainerRemoveTask {
 				if(pr.getErrorCode().orElse(0) != 0) {
 					Logger.error("Error code: " + pr.getErrorCode() + ", No container with the name " + containerName + " was found.");
 				}
-				String[] lines = pr.getReceived().split("\\r?\\n");
-				String containerID = lines[lines.length - 1].trim();
+				List<String> lines = pr.getReceivedLines();
+				String containerID = lines.isEmpty() ? "" : lines.get(lines.size() - 1).trim();
 			
 				if(containerID != null && !containerID.isEmpty()) {
 					pr = TaskUtils.runCmd(imageCommand + " rm -f " + containerID, context, false);
@@ -141,31 +144,29 @@ public class ContainerRemoveTask {
 	public static void deleteCorrespondingIDCContents(File IDC_BASE, String appid) throws IOException {
 		File IDC_DB_DIR = new File(IDC_BASE.toString() + Constants.SLASH + "db");
 		File IDC_DOCKER_DIR = new File(IDC_BASE.toString() + Constants.SLASH + "docker");
-		File delFile = null;
-
-		String dBContents[] = IDC_DB_DIR.list();
-		String dockerContents[] = IDC_DOCKER_DIR.list();
-
-		//Delete IDC DIR DB CONTENTS
-		for (int i = 0; i < dBContents.length; i++) {
-
-			if (dBContents[i].contains(appid)) {
-				delFile = new File(IDC_DB_DIR.toString() + Constants.SLASH + dBContents[i]);
-				if (IDCUtils.deleteFile(delFile)) {
+		String dbName = DBMap.DBPREFIX + appid;
+
+		//Delete IDC DIR DB CONTENTS, the db along with any temporary file left by compaction. The lock file
+		//is kept, as a process still waiting on it would otherwise hold a lock no one else can see.
+		File db = new File(IDC_DB_DIR, dbName);
+		File[] dbContents = { db, new File(IDC_DB_DIR, "." + dbName + ".tmp") };
+		DBLock lock = DBLock.forFile(db);
+		lock.lock();
+		try {
+			for (File delFile : dbContents) {
+				if (delFile.exists() && IDCUtils.deleteFile(delFile)) {
 					Logger.info("The corresponding IDC container metadata content was deleted.");
 				}
 			}
+		} finally {
+			lock.unlock();
 		}
+		DBIndex.forBase(IDC_BASE).remove(appid);
 
 		//Delete IDC DIR DOCKER CONTENTS
-		for (int i = 0; i < dockerContents.length; i++) {
-
-			if (dockerContents[i].contains(appid)) {
-				delFile = new File(IDC_DOCKER_DIR.toString() + Constants.SLASH + dockerContents[i]);
-				if (IDCUtils.deleteFile(delFile)) {
-					Logger.info("The corresponding IDC image metadata content was deleted.");
-				}
-			}
+		File delFile = new File(IDC_DOCKER_DIR, "docker-" + appid);
+		if (delFile.exists() && IDCUtils.deleteFile(delFile)) {
+			Logger.info("The corresponding IDC image metadata content was deleted.");
 		}
 	}
 
@@ -13,12 +13,15 @@ package org.eclipse.codewind.iterdev.tasks;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 
 import org.eclipse.codewind.iterdev.Constants;
+import org.eclipse.codewind.iterdev.DBMap;
 import org.eclipse.codewind.iterdev.DockerUtils;
 import org.eclipse.codewind.iterdev.IConsoleFilter;
 import org.eclipse.codewind.iterdev.IDCContext;
 import org.eclipse.codewind.iterdev.Logger;
+import org.eclipse.codewind.iterdev.Metrics;
 import org.eclipse.codewind.iterdev.ProcessRunner;
 import org.eclipse.codewind.iterdev.ProcessRunner.ConsoleStream;
 import org.eclipse.codewind.iterdev.StatusTracker;
@@ -26,6 +29,15 @@ import org.eclipse.codewind.iterdev.StatusTracker;
 public class ContainerRunTask {
 
     public static String execute(IDCContext context) throws Exception {
+        Metrics.Span span = Metrics.span(context, "containerRun");
+        try {
+            return run(context);
+        } finally {
+            span.close();
+        }
+    }
+
+    private static String run(IDCContext context) throws Exception {
         Logger.info("Start the container");
 
         boolean isWindows = System.getProperty("os.name").toLowerCase().contains("windows");
@@ -77,8 +89,11 @@ public class ContainerRunTask {
             exitCode = pr.getErrorCode().orElseThrow(() -> new IllegalStateException("Process did not terminate."));
         }
 
-        // Container ID is the last line of the output
-        String[] lines = pr.getReceived().split("\\r?\\n");
+        // Container ID is the last line of the output, ignoring any blank lines at the end
+        List<String> lines = pr.getReceivedLines();
+        while (!lines.isEmpty() && lines.get(lines.size() - 1).isEmpty()) {
+            lines.remove(lines.size() - 1);
+        }
         if (context.isK8s()) {
             if (exitCode == 7) {
                 Logger.info("ContainerRunTask: run_kubernetes.sh has failed with exit code " + exitCode);
@@ -86,7 +101,7 @@ public class ContainerRunTask {
             }
 
         	// Get the release name, deployment, and pod IDs (last three lines of output)
-            if (lines.length < 3) {
+            if (lines.size() < 3) {
                 String statusMsg = "containerRunTask.containerRunTaskFailed";	
                 Logger.error("Start container stage failed: failed to get deploymentID/podID/releaseID");
                 StatusTracker.updateProjectState(context, "build", "failed", statusMsg, null);	
@@ -94,39 +109,44 @@ public class ContainerRunTask {
             }
 
             // The release name, pod id and deployment id are the last three lines of output from run_kubernetes.sh
-            String deploymentID = lines[lines.length-3];
-            String podID = lines[lines.length-2];
-            String releaseID = lines[lines.length-1];
+            String deploymentID = lines.get(lines.size()-3);
+            String podID = lines.get(lines.size()-2);
+            String releaseID = lines.get(lines.size()-1);
+
+            DBMap.Transaction dbChanges = context.getAppDb().begin();
 
             // Get the port the deployment is running on
             for (String line : lines) {
                 if (line.contains("9080:")) {
-                   context.getAppDb().put(Constants.DB_KUBE_PORT, line.split(":")[1].split("/TCP")[0]);
+                   dbChanges.put(Constants.DB_KUBE_PORT, line.split(":")[1].split("/TCP")[0]);
                    break;
                 }
             }
 
             // Add the app db. (Store the deployment id in DB_LAST_CONTAINER_ID)
-            context.getAppDb().put(Constants.DB_LAST_CONTAINER_ID, deploymentID);
-            context.getAppDb().put(Constants.DB_HELM_RELEASE, releaseID);
-            context.getAppDb().put(Constants.DB_DEPLOYMENT_ID, deploymentID);
-            context.getAppDb().put(Constants.DB_POD_ID, podID);
-            context.getAppDb().put(Constants.DB_APP_ID, context.getAppId());
-            context.getAppDb().put(Constants.DB_APP_DIR, context.getAppDirectory().toString());
-            context.getAppDb().put(Constants.DB_CONTAINER_NAME, context.getContainerName());
+            dbChanges.put(Constants.DB_LAST_CONTAINER_ID, deploymentID);
+            dbChanges.put(Constants.DB_HELM_RELEASE, releaseID);
+            dbChanges.put(Constants.DB_DEPLOYMENT_ID, deploymentID);
+            dbChanges.put(Constants.DB_POD_ID, podID);
+            dbChanges.put(Constants.DB_APP_ID, context.getAppId());
+            dbChanges.put(Constants.DB_APP_DIR, context.getAppDirectory().toString());
+            dbChanges.put(Constants.DB_CONTAINER_NAME, context.getContainerName());
+            dbChanges.commit();
             return releaseID;
         }
         else {
-            String containerId = lines[lines.length - 1];
+            String containerId = lines.isEmpty() ? "" : lines.get(lines.size() - 1);
 
             boolean result = (exitCode == 0 && containerId.length() == 64);
 
             if (result) {
                 Logger.info("Stored application container for " + context.getAppName() + ": " + containerId);
-                context.getAppDb().put(Constants.DB_LAST_CONTAINER_ID, containerId);
-                context.getAppDb().put(Constants.DB_APP_ID, context.getAppId());
-                context.getAppDb().put(Constants.DB_APP_DIR, context.getAppDirectory().toString());
-                context.getAppDb().put(Constants.DB_CONTAINER_NAME, context.getContainerName());
+                context.getAppDb().begin()
+                        .put(Constants.DB_LAST_CONTAINER_ID, containerId)
+                        .put(Constants.DB_APP_ID, context.getAppId())
+                        .put(Constants.DB_APP_DIR, context.getAppDirectory().toString())
+                        .put(Constants.DB_CONTAINER_NAME, context.getContainerName())
+                        .commit();
             } else {
                 Logger.error("Start container stage failed: failed to get containerID");
                 containerId = null;
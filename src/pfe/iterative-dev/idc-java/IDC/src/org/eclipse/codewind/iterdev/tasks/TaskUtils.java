@@ -15,6 +15,8 @@ import java.io.IOException;
 
 import org.eclipse.codewind.iterdev.IConsoleFilter;
 import org.eclipse.codewind.iterdev.IDCContext;
+import org.eclipse.codewind.iterdev.Metrics;
+import org.eclipse.codewind.iterdev.OutputCapture;
 import org.eclipse.codewind.iterdev.ProcessRunner;
 
 public class TaskUtils {
@@ -34,18 +36,41 @@ public class TaskUtils {
 
 	public static ProcessRunner runCmd(String cmd, IDCContext context, IConsoleFilter filter, boolean showOutput)
 			throws IOException, InterruptedException {
+		return runCmd(cmd, context, filter, showOutput, OutputCapture.all());
+	}
 
-		ProcessRunner pr = createRunnerForCmd(cmd, context.getRootPassword().orElse(null), showOutput);
+	/**
+	 * As runCmd, keeping only the output that capture selects, for commands
+	 * with a lot of output of which little or none is needed.
+	 */
+	public static ProcessRunner runCmd(String cmd, IDCContext context, boolean showOutput, OutputCapture capture)
+			throws IOException, InterruptedException {
+		return runCmd(cmd, context, null, showOutput, capture);
+	}
+
+	private static ProcessRunner runCmd(String cmd, IDCContext context, IConsoleFilter filter, boolean showOutput,
+			OutputCapture capture) throws IOException, InterruptedException {
+
+		ProcessRunner pr = createRunnerForCmd(cmd, context, showOutput);
 		if(filter != null)
 			pr.addConsoleFilter(filter);
-		pr.startAndWaitForTermination();
+		pr.setCapture(capture);
+		long start = System.nanoTime();
+		try {
+			pr.startAndWaitForTermination();
+		} finally {
+			Metrics.recordCommand(context, cmd, System.nanoTime() - start);
+		}
 
 		return pr;
 	}
 
 	public static ProcessRunner createRunnerForCmd(String cmd, IDCContext context, boolean showOutput)
 			throws IOException, InterruptedException {
-		return createRunnerForCmd(cmd, context.getRootPassword().orElse(null), showOutput);
+		ProcessRunner pr = createRunnerForCmd(cmd, context.getRootPassword().orElse(null), showOutput);
+		// Run in the app directory even when idc is running as a daemon somewhere else
+		pr.setDirectory(context.getAppDirectory());
+		return pr;
 	}
 
 	private static ProcessRunner createRunnerForCmd(String cmd, String rootPassword, boolean showOutput)
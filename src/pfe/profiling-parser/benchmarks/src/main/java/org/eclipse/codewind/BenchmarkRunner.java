@@ -0,0 +1,36 @@
+package org.eclipse.codewind;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks with allocation profiling on and the results
+ * saved as JSON, so runs can be compared to spot regressions.
+ *
+ * Takes the usual JMH command line options. Unless -rf/-rff are given the
+ * results go to target/jmh-results-[timestamp].json.
+ */
+public class BenchmarkRunner {
+
+    public static void main(String args[]) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine).addProfiler(GCProfiler.class);
+        if (!commandLine.getResultFormat().hasValue() && !commandLine.getResult().hasValue()) {
+            File resultsDir = new File("target");
+            resultsDir.mkdirs();
+            String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+            options.resultFormat(ResultFormatType.JSON)
+                    .result(new File(resultsDir, "jmh-results-" + timestamp + ".json").getPath());
+        }
+        new Runner(options.build()).run();
+    }
+
+}
@@ -0,0 +1,75 @@
+package org.eclipse.codewind;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.List;
+
+import com.ibm.java.diagnostics.healthcenter.api.profiling.MethodProfileData;
+
+/**
+ * Times IndexedTreeBuilder against the original layered search on synthetic
+ * profiles of increasing size and checks both produce the same JSON.
+ *
+ * Usage: CallTreeBuilderBenchmark [sizes] [largest size to run the layered search on]
+ * e.g.   CallTreeBuilderBenchmark 1000,10000,100000 10000
+ */
+public class CallTreeBuilderBenchmark {
+
+    private static final int ROOTS = 8;
+    private static final int FRAMES_PER_METHOD = 2;
+    private static final int MAX_DEPTH = 12;
+    private static final int RUNS = 3;
+
+    public static void main(String args[]) throws Exception {
+        String sizes = args.length > 0 ? args[0] : "1000,10000,100000";
+        int layeredLimit = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+
+        System.out.printf("%10s %10s %8s %10s %14s %14s %10s%n", "methods", "frames", "depth", "nodes", "indexed (ms)",
+                "layered (ms)", "identical");
+        for (String size : sizes.split(",")) {
+            int methodCount = Integer.parseInt(size.trim());
+            SyntheticProfile profile = new SyntheticProfile(methodCount, ROOTS, FRAMES_PER_METHOD, MAX_DEPTH, methodCount);
+            List<MethodProfileData> methods = profile.getMethods();
+
+            String layeredResult = "-";
+            String identical = "-";
+            byte[] layeredJSON = null;
+            if (methodCount <= layeredLimit) {
+                NormalisedNode root = NormalisedNode.createRoot();
+                long start = System.nanoTime();
+                HCProfileToJSON.buildLayered(root, methods);
+                root.totalChildCounts();
+                layeredResult = String.valueOf((System.nanoTime() - start) / 1000000);
+                layeredJSON = toJSON(CompactTree.fromNodes(root));
+            }
+
+            long indexedTime = Long.MAX_VALUE;
+            int nodes = 0;
+            CompactTree indexedTree = null;
+            for (int run = 0; run < RUNS; run++) {
+                indexedTree = new CompactTree();
+                long start = System.nanoTime();
+                nodes = new IndexedTreeBuilder(methods).build(indexedTree) + 1;
+                indexedTree.totalChildCounts();
+                indexedTime = Math.min(indexedTime, System.nanoTime() - start);
+            }
+
+            if (layeredJSON != null) {
+                identical = String.valueOf(Arrays.equals(layeredJSON, toJSON(indexedTree)));
+            }
+
+            System.out.printf("%10d %10d %8d %10d %14d %14s %10s%n", methods.size(), profile.getFrameCount(),
+                    profile.getMaxDepth(), nodes, indexedTime / 1000000, layeredResult, identical);
+        }
+    }
+
+    private static byte[] toJSON(CompactTree tree) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (JSONProfileWriter out = new JSONProfileWriter(Channels.newChannel(bytes))) {
+            out.writeTree(tree);
+        }
+        return bytes.toByteArray();
+    }
+
+}
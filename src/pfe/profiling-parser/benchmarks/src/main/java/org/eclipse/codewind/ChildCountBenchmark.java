@@ -0,0 +1,84 @@
+package org.eclipse.codewind;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the recursive and explicit stack versions of totalChildCounts,
+ * and the CompactTree version, on deep trees.
+ *
+ * Each tree is a spine of depth nodes where every spine node also has
+ * width - 1 leaf children, so a width of 1 is a single chain.
+ *
+ * Run with BenchmarkRunner ChildCountBenchmark, see pom.xml.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChildCountBenchmark {
+
+    @Param({ "5000" })
+    public int depth;
+
+    @Param({ "1", "4" })
+    public int width;
+
+    private NormalisedNode root;
+    private CompactTree tree;
+
+    @Setup
+    public void buildTrees() {
+        root = NormalisedNode.createRoot();
+        tree = new CompactTree();
+        long nextId = NormalisedNode.ROOT_ID + 1;
+        NormalisedNode spine = root;
+        int spineIndex = 0;
+        for (int level = 0; level < depth; level++) {
+            NormalisedNode next = null;
+            int nextIndex = 0;
+            for (int i = 0; i < width; i++) {
+                String signature = "com.example.Deep.level" + level + "_" + i + "()V";
+                NormalisedNode node = new NormalisedNode(nextId++, signature, spine,
+                        SyntheticProfile.methodCalledFrom(signature, spine.signature, 10 + i, 50.0));
+                spine.addChild(node);
+                int index = tree.addNode(spineIndex, signature, node.getCount());
+                if (i == 0) {
+                    next = node;
+                    nextIndex = index;
+                }
+            }
+            spine = next;
+            spineIndex = nextIndex;
+        }
+    }
+
+    @Benchmark
+    public double recursive() throws Exception {
+        return root.totalChildCountsRecursive();
+    }
+
+    @Benchmark
+    public double explicitStack() throws Exception {
+        return root.totalChildCounts();
+    }
+
+    @Benchmark
+    public double compactTree() {
+        return tree.totalChildCounts();
+    }
+
+}
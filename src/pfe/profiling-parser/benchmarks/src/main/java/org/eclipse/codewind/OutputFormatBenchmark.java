@@ -0,0 +1,97 @@
+package org.eclipse.codewind;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+
+/**
+ * Compares the size and write time of the JSON and binary output formats
+ * on synthetic profiles, and reads the binary output back with
+ * BinaryProfileReader to check it is the tree that was written.
+ *
+ * Usage: OutputFormatBenchmark [sizes]
+ * e.g.   OutputFormatBenchmark 1000,10000,100000
+ */
+public class OutputFormatBenchmark {
+
+    private static final int ROOTS = 8;
+    private static final int FRAMES_PER_METHOD = 2;
+    private static final int MAX_DEPTH = 24;
+    private static final int RUNS = 3;
+
+    private interface WriterFactory {
+        ProfileWriter create(ByteArrayOutputStream bytes);
+    }
+
+    public static void main(String args[]) throws Exception {
+        String sizes = args.length > 0 ? args[0] : "1000,10000,100000";
+
+        System.out.printf("%10s %10s %14s %14s %12s %12s %12s%n", "methods", "nodes", "json (bytes)", "binary (bytes)",
+                "json (ms)", "binary (ms)", "decode (ms)");
+        for (String size : sizes.split(",")) {
+            int methodCount = Integer.parseInt(size.trim());
+            SyntheticProfile profile = new SyntheticProfile(methodCount, ROOTS, FRAMES_PER_METHOD, MAX_DEPTH, methodCount);
+            CompactTree tree = new CompactTree();
+            int nodes = new IndexedTreeBuilder(profile.getMethods()).build(tree) + 1;
+            tree.totalChildCounts();
+
+            long jsonTime = Long.MAX_VALUE;
+            long binaryTime = Long.MAX_VALUE;
+            long decodeTime = Long.MAX_VALUE;
+            byte[] json = null;
+            byte[] binary = null;
+            for (int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                json = write(tree, bytes -> new JSONProfileWriter(Channels.newChannel(bytes)));
+                jsonTime = Math.min(jsonTime, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                binary = write(tree, bytes -> new BinaryProfileWriter(Channels.newChannel(bytes)));
+                binaryTime = Math.min(binaryTime, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                decode(binary, tree);
+                decodeTime = Math.min(decodeTime, System.nanoTime() - start);
+            }
+
+            System.out.printf("%10d %10d %14d %14d %12d %12d %12d%n", profile.getMethods().size(), nodes, json.length,
+                    binary.length, jsonTime / 1000000, binaryTime / 1000000, decodeTime / 1000000);
+        }
+    }
+
+    private static byte[] write(CompactTree tree, WriterFactory factory) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ProfileWriter out = factory.create(bytes)) {
+            out.writeTree(tree);
+        }
+        return bytes.toByteArray();
+    }
+
+    // Reads the tree back and checks it is the one that was written.
+    private static void decode(byte[] data, CompactTree expected) throws IOException {
+        CompactTree tree;
+        double total;
+        try (BinaryProfileReader in = new BinaryProfileReader(Channels.newChannel(new ByteArrayInputStream(data)))) {
+            tree = in.readTree();
+            total = in.getTotalCount();
+        }
+        if (tree.size() != expected.size()) {
+            throw new IllegalStateException("Expected " + expected.size() + " nodes, found " + tree.size());
+        }
+        double sum = 0.0;
+        for (int i = 0; i < tree.size(); i++) {
+            if (tree.getSelfId(i) != expected.getSelfId(i) || tree.getParentId(i) != expected.getParentId(i)
+                    || !tree.getSignature(i).equals(expected.getSignature(i))
+                    || tree.getCount(i) != expected.getCount(i)
+                    || tree.getChildCount(i) != expected.getChildCount(i)) {
+                throw new IllegalStateException("Node " + expected.getSelfId(i) + " was not read back as written");
+            }
+            sum += tree.getCount(i);
+        }
+        if (sum != total) {
+            throw new IllegalStateException("Node counts do not add up to the total");
+        }
+    }
+
+}
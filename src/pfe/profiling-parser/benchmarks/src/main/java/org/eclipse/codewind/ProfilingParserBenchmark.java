@@ -0,0 +1,169 @@
+package org.eclipse.codewind;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibm.java.diagnostics.healthcenter.api.profiling.MethodProfileData;
+import com.ibm.java.diagnostics.healthcenter.api.profiling.MethodProfilingNode;
+
+/**
+ * Benchmarks the stages of a conversion on synthetic profiles: building the
+ * tree, working out node counts, totalling child counts and writing output.
+ *
+ * The profile shape is controlled by the methods, depth, width and recursion
+ * parameters, see SyntheticProfile. Run through BenchmarkRunner to get
+ * allocation figures and a JSON results file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class ProfilingParserBenchmark {
+
+    private static final int ROOTS = 8;
+    private static final int FRAMES_PER_METHOD = 2;
+
+    @Param({ "10000" })
+    public int methods;
+
+    @Param({ "16", "256" })
+    public int depth;
+
+    @Param({ "64" })
+    public int width;
+
+    @Param({ "0.0", "0.1" })
+    public double recursion;
+
+    private List<MethodProfileData> profilingData;
+    private CompactTree tree;
+    // Each method paired with the signature of its first caller, what calculateCount is given.
+    private MethodProfileData[] countMethods;
+    private String[] countParents;
+    // The same pairs as indexes and signature ids, what IndexedTreeBuilder.countFor is given.
+    private IndexedTreeBuilder builder;
+    private int[] countMethodIndexes;
+    private int[] countParentIds;
+
+    // Discards output so only the cost of producing it is measured.
+    private static class NullChannel implements WritableByteChannel {
+        long written = 0;
+
+        @Override
+        public int write(ByteBuffer src) {
+            int remaining = src.remaining();
+            src.position(src.limit());
+            written += remaining;
+            return remaining;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void generate() {
+        SyntheticProfile profile = new SyntheticProfile(methods, ROOTS, FRAMES_PER_METHOD, depth, width, recursion, methods);
+        profilingData = new ArrayList<>(Arrays.asList(profile.getProfilingData().getProfilingEvents()));
+        tree = new CompactTree();
+        new IndexedTreeBuilder(profilingData).build(tree);
+        tree.totalChildCounts();
+
+        builder = new IndexedTreeBuilder(profilingData);
+        List<MethodProfileData> withCallers = new ArrayList<>();
+        List<String> parents = new ArrayList<>();
+        List<Integer> indexes = new ArrayList<>();
+        for (int i = 0; i < profilingData.size(); i++) {
+            MethodProfileData mpd = profilingData.get(i);
+            MethodProfilingNode[] callers = mpd.getCallingMethods();
+            if (callers.length > 0) {
+                withCallers.add(mpd);
+                parents.add(callers[0].getMethodName());
+                indexes.add(i);
+            }
+        }
+        countMethods = withCallers.toArray(new MethodProfileData[withCallers.size()]);
+        countParents = parents.toArray(new String[parents.size()]);
+        countMethodIndexes = new int[indexes.size()];
+        countParentIds = new int[parents.size()];
+        for (int i = 0; i < countMethodIndexes.length; i++) {
+            countMethodIndexes[i] = indexes.get(i);
+            countParentIds[i] = builder.signatureId(countParents[i]);
+        }
+    }
+
+    @Benchmark
+    public CompactTree buildTree() {
+        CompactTree built = new CompactTree();
+        new IndexedTreeBuilder(profilingData).build(built);
+        return built;
+    }
+
+    @Benchmark
+    public double calculateCount() throws Exception {
+        double total = 0.0;
+        for (int i = 0; i < countMethods.length; i++) {
+            total += NormalisedNode.calculateCount(countMethods[i], countParents[i]);
+        }
+        return total;
+    }
+
+    @Benchmark
+    public double countById() {
+        double total = 0.0;
+        for (int i = 0; i < countMethodIndexes.length; i++) {
+            total += builder.countFor(countMethodIndexes[i], countParentIds[i]);
+        }
+        return total;
+    }
+
+    @Benchmark
+    public double totalChildCounts() {
+        return tree.totalChildCounts();
+    }
+
+    @Benchmark
+    public long writeJSON() throws IOException {
+        NullChannel channel = new NullChannel();
+        try (JSONProfileWriter out = new JSONProfileWriter(channel)) {
+            out.writeTree(tree);
+        }
+        return channel.written;
+    }
+
+    @Benchmark
+    public long writeBinary() throws IOException {
+        NullChannel channel = new NullChannel();
+        try (BinaryProfileWriter out = new BinaryProfileWriter(channel)) {
+            out.writeTree(tree);
+        }
+        return channel.written;
+    }
+
+}
@@ -0,0 +1,253 @@
+package org.eclipse.codewind;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.ibm.java.diagnostics.healthcenter.api.profiling.MethodProfileData;
+import com.ibm.java.diagnostics.healthcenter.api.profiling.MethodProfilingNode;
+import com.ibm.java.diagnostics.healthcenter.api.profiling.ProfilingData;
+
+/**
+ * Generates Health Center style profiling data from a random call tree.
+ *
+ * A random tree of stack frames is built first, then every method is given
+ * the inverted caller tree Health Center would report for it: who called it,
+ * who called them and so on up to a thread root, each caller weighted by the
+ * percentage of the method's samples that came through it.
+ *
+ * The API types are interfaces, so instances are created as dynamic proxies.
+ */
+public class SyntheticProfile {
+
+    private static class Frame {
+        final String method;
+        final Frame parent;
+        final int depth;
+        final long samples;
+
+        Frame(String method, Frame parent, long samples) {
+            this.method = method;
+            this.parent = parent;
+            this.depth = parent != null ? parent.depth + 1 : 0;
+            this.samples = samples;
+        }
+    }
+
+    // One entry in a method's inverted caller tree.
+    private static class Caller implements InvocationHandler {
+        final String method;
+        final Map<String, Caller> callers = new LinkedHashMap<>();
+        long samples;
+        double weight;
+        MethodProfilingNode[] callingMethods;
+        long totalSamples;
+
+        Caller(String method) {
+            this.method = method;
+        }
+
+        Caller callerOrCreate(String name) {
+            Caller caller = callers.get(name);
+            if (caller == null) {
+                caller = new Caller(name);
+                callers.put(name, caller);
+            }
+            return caller;
+        }
+
+        // Turns the caller map into proxies, weighting each caller by its share of our samples.
+        MethodProfilingNode[] resolve() {
+            MethodProfilingNode[] resolved = new MethodProfilingNode[callers.size()];
+            int i = 0;
+            for (Caller caller : callers.values()) {
+                caller.weight = samples > 0 ? (caller.samples * 100.0) / samples : 100.0 / callers.size();
+                caller.callingMethods = caller.resolve();
+                resolved[i++] = (MethodProfilingNode) Proxy.newProxyInstance(SyntheticProfile.class.getClassLoader(),
+                        new Class<?>[] { MethodProfilingNode.class }, caller);
+            }
+            callers.clear();
+            return resolved;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method m, Object[] args) {
+            switch (m.getName()) {
+            case "getMethodName":
+                return method;
+            case "getCallingMethods":
+                return callingMethods;
+            case "getWeight":
+                return asReturnType(m, weight);
+            case "getMethodSampleCount":
+                return asReturnType(m, totalSamples);
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            case "toString":
+                return method;
+            default:
+                throw new UnsupportedOperationException(m.getName() + " is not available on synthetic profiling data");
+            }
+        }
+    }
+
+    private final List<MethodProfileData> methods = new ArrayList<>();
+    private int frameCount = 0;
+    private int maxDepthReached = 0;
+
+    /**
+     * @param methodCount number of distinct methods (not counting the thread roots)
+     * @param rootCount number of thread roots
+     * @param framesPerMethod average number of call sites each method appears at
+     * @param maxDepth deepest stack to generate
+     * @param seed random seed, the same arguments always give the same profile
+     */
+    public SyntheticProfile(int methodCount, int rootCount, int framesPerMethod, int maxDepth, long seed) {
+        this(methodCount, rootCount, framesPerMethod, maxDepth, 64, 0.0, seed);
+    }
+
+    /**
+     * @param methodCount number of distinct methods (not counting the thread roots)
+     * @param rootCount number of thread roots
+     * @param framesPerMethod average number of call sites each method appears at
+     * @param maxDepth deepest stack to generate
+     * @param width how many of the most recently created frames a new frame can be
+     *        called from, small values give long narrow stacks, large values bushy ones
+     * @param recursion chance (0 to 1) that a frame calls back into a method already
+     *        on its stack instead of a random method
+     * @param seed random seed, the same arguments always give the same profile
+     */
+    public SyntheticProfile(int methodCount, int rootCount, int framesPerMethod, int maxDepth, int width,
+            double recursion, long seed) {
+        Random random = new Random(seed);
+        String[] names = new String[methodCount];
+        for (int i = 0; i < methodCount; i++) {
+            names[i] = "com.example.synthetic.Class" + (i / 16) + ".method" + (i % 16) + "()V";
+        }
+
+        List<Frame> frames = new ArrayList<>();
+        List<Frame> roots = new ArrayList<>();
+        for (int i = 0; i < rootCount; i++) {
+            // Thread roots have no callers and, as in real captures, no samples of their own.
+            Frame root = new Frame("java.lang.Thread" + i + ".run()V", null, 0);
+            frames.add(root);
+            roots.add(root);
+        }
+        int total = methodCount * Math.max(1, framesPerMethod);
+        for (int i = 0; i < total; i++) {
+            // Favour recently created frames as parents so the stacks grow deep.
+            Frame parent = frames.get(frames.size() - 1 - random.nextInt(Math.min(frames.size(), Math.max(1, width))));
+            if (parent.depth >= maxDepth) {
+                parent = roots.get(random.nextInt(rootCount));
+            }
+            // Every method appears at least once, the rest of the frames pick methods at random
+            // or, for recursion, one of the methods already on the stack (not the thread root).
+            String method;
+            if (i < methodCount) {
+                method = names[i];
+            } else if (parent.depth > 0 && random.nextDouble() < recursion) {
+                Frame ancestor = parent;
+                for (int up = random.nextInt(parent.depth); up > 0; up--) {
+                    ancestor = ancestor.parent;
+                }
+                method = ancestor.method;
+            } else {
+                method = names[random.nextInt(methodCount)];
+            }
+            Frame frame = new Frame(method, parent, random.nextInt(20));
+            frames.add(frame);
+            maxDepthReached = Math.max(maxDepthReached, frame.depth);
+        }
+        frameCount = frames.size();
+
+        Map<String, Caller> byMethod = new LinkedHashMap<>();
+        for (Frame frame : frames) {
+            Caller method = byMethod.get(frame.method);
+            if (method == null) {
+                method = new Caller(frame.method);
+                byMethod.put(frame.method, method);
+            }
+            method.samples += frame.samples;
+            Caller node = method;
+            for (Frame caller = frame.parent; caller != null; caller = caller.parent) {
+                node = node.callerOrCreate(caller.method);
+                node.samples += frame.samples;
+            }
+        }
+        for (Caller method : byMethod.values()) {
+            method.totalSamples = method.samples;
+            method.callingMethods = method.resolve();
+            methods.add((MethodProfileData) Proxy.newProxyInstance(SyntheticProfile.class.getClassLoader(),
+                    new Class<?>[] { MethodProfileData.class }, method));
+        }
+    }
+
+    /**
+     * A single method with one caller, for building trees directly rather than
+     * through a builder. callerName should equal the parent node's signature
+     * for NormalisedNode to match it.
+     */
+    public static MethodProfileData methodCalledFrom(String name, String callerName, long samples, double weight) {
+        Caller caller = new Caller(callerName);
+        caller.weight = weight;
+        caller.callingMethods = new MethodProfilingNode[0];
+        Caller method = new Caller(name);
+        method.totalSamples = samples;
+        method.callingMethods = new MethodProfilingNode[] { (MethodProfilingNode) Proxy.newProxyInstance(
+                SyntheticProfile.class.getClassLoader(), new Class<?>[] { MethodProfilingNode.class }, caller) };
+        return (MethodProfileData) Proxy.newProxyInstance(SyntheticProfile.class.getClassLoader(),
+                new Class<?>[] { MethodProfileData.class }, method);
+    }
+
+    public List<MethodProfileData> getMethods() {
+        return methods;
+    }
+
+    // The profile as the Health Center API would return it.
+    public ProfilingData getProfilingData() {
+        MethodProfileData[] events = methods.toArray(new MethodProfileData[methods.size()]);
+        return (ProfilingData) Proxy.newProxyInstance(SyntheticProfile.class.getClassLoader(),
+                new Class<?>[] { ProfilingData.class }, (proxy, m, args) -> {
+                    switch (m.getName()) {
+                    case "getProfilingEvents":
+                        return events.clone();
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    case "toString":
+                        return "SyntheticProfile";
+                    default:
+                        throw new UnsupportedOperationException(m.getName() + " is not available on synthetic profiling data");
+                    }
+                });
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public int getMaxDepth() {
+        return maxDepthReached;
+    }
+
+    private static Object asReturnType(Method m, double value) {
+        Class<?> type = m.getReturnType();
+        if (type == int.class || type == Integer.class) {
+            return (int) value;
+        } else if (type == long.class || type == Long.class) {
+            return (long) value;
+        } else if (type == float.class || type == Float.class) {
+            return (float) value;
+        }
+        return value;
+    }
+
+}
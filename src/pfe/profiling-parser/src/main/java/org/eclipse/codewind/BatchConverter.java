@@ -0,0 +1,124 @@
+package org.eclipse.codewind;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Converts many .hcd files in one JVM on a fixed size pool of workers.
+ *
+ * Each file gets its own ProfileConverter so a failure in one conversion
+ * is recorded in the summary without affecting the others.
+ */
+public class BatchConverter {
+
+    public static final String HCD_SUFFIX = ".hcd";
+
+    public static class Result {
+        public final ProfileConverter conversion;
+        public final long timeMillis;
+        public final Throwable error;
+
+        Result(ProfileConverter conversion, long timeMillis, Throwable error) {
+            this.conversion = conversion;
+            this.timeMillis = timeMillis;
+            this.error = error;
+        }
+
+        public boolean succeeded() {
+            return error == null;
+        }
+    }
+
+    private final int threads;
+    private final List<ProfileConverter> conversions = new ArrayList<>();
+
+    public BatchConverter(int threads) {
+        this.threads = threads;
+    }
+
+    public void add(File hcdFile, File outputFile, boolean binary) {
+        conversions.add(new ProfileConverter(hcdFile, outputFile, binary));
+    }
+
+    // Adds every .hcd file in inputDir, writing each to outputDir with a .json or .bin suffix.
+    public void addDirectory(File inputDir, File outputDir, boolean binary) {
+        File[] hcdFiles = inputDir.listFiles((dir, name) -> name.endsWith(HCD_SUFFIX));
+        if (hcdFiles == null) {
+            return;
+        }
+        Arrays.sort(hcdFiles);
+        String suffix = binary ? ".bin" : ".json";
+        for (File hcdFile : hcdFiles) {
+            String name = hcdFile.getName();
+            String baseName = name.substring(0, name.length() - HCD_SUFFIX.length());
+            add(hcdFile, new File(outputDir, baseName + suffix), binary);
+        }
+    }
+
+    public int size() {
+        return conversions.size();
+    }
+
+    /**
+     * Runs every conversion and returns the results in the order the files
+     * were added.
+     */
+    public List<Result> run() throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        List<Future<Result>> futures = new ArrayList<>();
+        try {
+            for (ProfileConverter conversion : conversions) {
+                futures.add(pool.submit(() -> convert(conversion)));
+            }
+            List<Result> results = new ArrayList<>();
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    // convert() catches everything, this is just in case.
+                    results.add(new Result(conversions.get(i), 0, e.getCause()));
+                }
+            }
+            return results;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static Result convert(ProfileConverter conversion) {
+        long start = System.nanoTime();
+        Throwable error = null;
+        try {
+            conversion.convert();
+        } catch (Throwable t) {
+            // Includes OutOfMemoryError, one huge profile shouldn't stop the rest of the batch.
+            error = t;
+        }
+        return new Result(conversion, (System.nanoTime() - start) / 1000000, error);
+    }
+
+    public static void printSummary(List<Result> results, PrintStream out) {
+        int failed = 0;
+        long totalNodes = 0;
+        for (Result result : results) {
+            if (result.succeeded()) {
+                totalNodes += result.conversion.getNodeCount();
+                out.printf("OK     %s -> %s (%d nodes, %d ms)\n", result.conversion.getHcdFile(),
+                        result.conversion.getOutputFile(), result.conversion.getNodeCount(), result.timeMillis);
+            } else {
+                failed++;
+                out.printf("FAILED %s: %s\n", result.conversion.getHcdFile(), result.error);
+            }
+        }
+        out.printf("Converted %d of %d files, %d failed, %d nodes in total.\n", results.size() - failed,
+                results.size(), failed, totalNodes);
+    }
+
+}
@@ -0,0 +1,158 @@
+package org.eclipse.codewind;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads a tree written by BinaryProfileWriter back into a CompactTree, see
+ * there for the layout. Node ids, parents, signatures and both counts come
+ * back as they were written, so a tree can be checked against what was
+ * written or converted on to JSON.
+ */
+public class BinaryProfileReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // The counts in the header aren't trusted to size anything larger up front.
+    private static final int MAX_INITIAL_CAPACITY = 1 << 16;
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private double totalCount = 0.0;
+
+    public BinaryProfileReader(ReadableByteChannel channel) {
+        this.channel = channel;
+        buffer.flip();
+    }
+
+    public CompactTree readTree() throws IOException {
+        for (byte b : BinaryProfileWriter.MAGIC) {
+            if (get() != b) {
+                throw new IOException("Not a binary profile");
+            }
+        }
+        byte version = get();
+        if (version != BinaryProfileWriter.VERSION) {
+            throw new IOException("Unsupported binary profile version " + version);
+        }
+
+        int signatureCount = readInt();
+        SignatureTable signatures = new SignatureTable();
+        for (int i = 0; i < signatureCount; i++) {
+            String signature = readString(readInt());
+            // Interned in the order written so the indexes nodes refer to are the same.
+            if (signatures.intern(signature) != i) {
+                throw new IOException("Signature " + i + " is a duplicate");
+            }
+        }
+        int nodeCount = readInt();
+        totalCount = readDouble();
+        if (nodeCount == 0) {
+            throw new IOException("Profile has no root node");
+        }
+
+        CompactTree tree = new CompactTree(Math.min(nodeCount, MAX_INITIAL_CAPACITY), signatures);
+        for (int i = 0; i < nodeCount; i++) {
+            long selfId = readVarint();
+            long parentId = readVarint();
+            int signatureIndex = readInt();
+            double count = readDouble();
+            double childCount = readDouble();
+            if (selfId != tree.getSelfId(i) || signatureIndex >= signatureCount) {
+                throw new IOException("Node " + selfId + " is out of order or has no signature");
+            }
+            int index;
+            if (i == 0) {
+                if (parentId != 0 || !CompactTree.ROOT_SIGNATURE.equals(signatures.get(signatureIndex))) {
+                    throw new IOException("The first node is not the root");
+                }
+                index = 0;
+            } else {
+                // Parents always come before their children.
+                if (parentId == 0 || parentId >= selfId) {
+                    throw new IOException("Node " + selfId + " comes before its parent " + parentId);
+                }
+                index = tree.addNode(tree.indexOf(parentId), signatureIndex, count);
+            }
+            tree.setCounts(index, count, childCount);
+        }
+        return tree;
+    }
+
+    // The total count from the header of the last tree read.
+    public double getTotalCount() {
+        return totalCount;
+    }
+
+    private long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Varint is too long");
+    }
+
+    // A varint used as a count or an index.
+    private int readInt() throws IOException {
+        long value = readVarint();
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IOException("Length " + Long.toUnsignedString(value) + " is out of range");
+        }
+        return (int) value;
+    }
+
+    // Read a buffer at a time, so a corrupt length runs into the end of the file before much is allocated.
+    private String readString(int length) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.min(length, BUFFER_SIZE));
+        while (bytes.size() < length) {
+            if (!buffer.hasRemaining()) {
+                fill(1);
+            }
+            int n = Math.min(buffer.remaining(), length - bytes.size());
+            bytes.write(buffer.array(), buffer.position(), n);
+            buffer.position(buffer.position() + n);
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private double readDouble() throws IOException {
+        if (buffer.remaining() < Double.BYTES) {
+            fill(Double.BYTES);
+        }
+        return buffer.getDouble();
+    }
+
+    private byte get() throws IOException {
+        if (!buffer.hasRemaining()) {
+            fill(1);
+        }
+        return buffer.get();
+    }
+
+    // Reads more from the channel until at least needed bytes are buffered.
+    private void fill(int needed) throws IOException {
+        buffer.compact();
+        while (buffer.position() < needed) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Binary profile is truncated");
+            }
+        }
+        buffer.flip();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
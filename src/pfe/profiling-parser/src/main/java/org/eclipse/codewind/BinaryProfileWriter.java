@@ -0,0 +1,132 @@
+package org.eclipse.codewind;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes a normalised tree in a compact binary form of the JSON output.
+ *
+ * Each signature the nodes use is stored once in a string table, in order of
+ * first use, and nodes refer to it by index. A tree sharing its signature
+ * table with others only writes its own signatures. Ids and indexes are
+ * unsigned LEB128 varints, counts are fixed width little-endian IEEE doubles.
+ * The layout is:
+ *
+ * <pre>
+ * magic          4 bytes  "HCPB"
+ * version        1 byte   1
+ * string count   varint
+ * strings        string count x (varint UTF-8 byte length, UTF-8 bytes)
+ * node count     varint
+ * total count    8 bytes  double
+ * nodes          node count x:
+ *   self         varint
+ *   parent       varint   0 for the root
+ *   signature    varint   index into the string table
+ *   count        8 bytes  double
+ *   child count  8 bytes  double
+ * </pre>
+ *
+ * Nodes appear in the same order as in the JSON functions array.
+ */
+public class BinaryProfileWriter implements ProfileWriter {
+
+    public static final byte[] MAGIC = { 'H', 'C', 'P', 'B' };
+    public static final byte VERSION = 1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    public BinaryProfileWriter(WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    @Override
+    public void writeTree(CompactTree tree) throws IOException {
+        double totalCount = 0.0;
+        for (int i = 0; i < tree.size(); i++) {
+            totalCount += tree.getCount(i);
+        }
+
+        for (byte b : MAGIC) {
+            put(b);
+        }
+        put(VERSION);
+        // Renumbers the signatures the nodes use from 0, for a tree with its own table nothing changes.
+        int[] fileIndexes = new int[tree.getSignatureCount()];
+        Arrays.fill(fileIndexes, -1);
+        int[] used = new int[Math.min(tree.getSignatureCount(), tree.size())];
+        int usedCount = 0;
+        for (int i = 0; i < tree.size(); i++) {
+            int signatureIndex = tree.getSignatureIndex(i);
+            if (fileIndexes[signatureIndex] == -1) {
+                fileIndexes[signatureIndex] = usedCount;
+                used[usedCount++] = signatureIndex;
+            }
+        }
+        writeVarint(usedCount);
+        for (int i = 0; i < usedCount; i++) {
+            byte[] bytes = tree.getSignatureAt(used[i]).getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length);
+            for (byte b : bytes) {
+                put(b);
+            }
+        }
+        writeVarint(tree.size());
+        writeDouble(totalCount);
+
+        for (int i = 0; i < tree.size(); i++) {
+            writeVarint(tree.getSelfId(i));
+            writeVarint(tree.getParentId(i));
+            writeVarint(fileIndexes[tree.getSignatureIndex(i)]);
+            writeDouble(tree.getCount(i));
+            writeDouble(tree.getChildCount(i));
+        }
+    }
+
+    private void writeVarint(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        put((byte) value);
+    }
+
+    private void writeDouble(double value) throws IOException {
+        if (buffer.remaining() < Double.BYTES) {
+            flush();
+        }
+        buffer.putDouble(value);
+    }
+
+    private void put(byte b) throws IOException {
+        if (!buffer.hasRemaining()) {
+            flush();
+        }
+        buffer.put(b);
+    }
+
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+}
@@ -0,0 +1,246 @@
+package org.eclipse.codewind;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A normalised tree held as parallel primitive arrays rather than one
+ * object per node.
+ *
+ * Nodes are numbered from 0 in the order they are added, which is also
+ * id order, so a node's id is its index + 1 and the root (index 0) has id
+ * NormalisedNode.ROOT_ID. Children are linked through firstChild and
+ * nextSibling and signatures are interned into a table shared by all
+ * nodes, and optionally other trees, so each node costs 36 bytes: five
+ * ints and two doubles.
+ *
+ * Children must be added after their parent, which the builders always do.
+ */
+public class CompactTree {
+
+    public static final int NONE = -1;
+
+    public static final String ROOT_SIGNATURE = "root";
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private int size = 0;
+    private int[] parent;
+    private int[] firstChild;
+    private int[] lastChild;
+    private int[] nextSibling;
+    private int[] signature;
+    private double[] count;
+    private double[] childCount;
+
+    private final SignatureTable signatures;
+
+    public CompactTree() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public CompactTree(int capacity) {
+        this(capacity, new SignatureTable());
+    }
+
+    // A tree whose signatures go into a table shared with other trees.
+    public CompactTree(SignatureTable signatures) {
+        this(DEFAULT_CAPACITY, signatures);
+    }
+
+    public CompactTree(int capacity, SignatureTable signatures) {
+        this.signatures = signatures;
+        capacity = Math.max(capacity, 1);
+        parent = new int[capacity];
+        firstChild = new int[capacity];
+        lastChild = new int[capacity];
+        nextSibling = new int[capacity];
+        signature = new int[capacity];
+        count = new double[capacity];
+        childCount = new double[capacity];
+        addNode(NONE, ROOT_SIGNATURE, 0);
+    }
+
+    /**
+     * Copies a tree of NormalisedNodes built under root, child counts included.
+     */
+    public static CompactTree fromNodes(NormalisedNode root) throws IOException {
+        CompactTree tree = new CompactTree();
+        tree.childCount[0] = root.getChildCount();
+        NormalisedNode.visitInIdOrder(root, node -> {
+            if (node == root) {
+                return;
+            }
+            int index = tree.addNode(tree.indexOf(node.parent.getSelfId()), node.signature, node.getCount());
+            tree.childCount[index] = node.getChildCount();
+        });
+        return tree;
+    }
+
+    /**
+     * Adds a node as the last child of parent and returns its index.
+     */
+    public int addNode(int parentIndex, String signature, double count) {
+        return addNode(parentIndex, intern(signature), count);
+    }
+
+    public int addNode(int parentIndex, int signatureIndex, double nodeCount) {
+        if (size == parent.length) {
+            grow();
+        }
+        int index = size++;
+        parent[index] = parentIndex;
+        firstChild[index] = NONE;
+        lastChild[index] = NONE;
+        nextSibling[index] = NONE;
+        signature[index] = signatureIndex;
+        count[index] = nodeCount;
+        childCount[index] = 0.0;
+        if (parentIndex != NONE) {
+            if (firstChild[parentIndex] == NONE) {
+                firstChild[parentIndex] = index;
+            } else {
+                nextSibling[lastChild[parentIndex]] = index;
+            }
+            lastChild[parentIndex] = index;
+        }
+        return index;
+    }
+
+    // Returns the index of a signature in the signature table, adding it if needed.
+    public int intern(String s) {
+        return signatures.intern(s);
+    }
+
+    /**
+     * Adds the counts of another tree sharing this tree's signature table,
+     * matching nodes by signature path. Nodes with no match are added as new
+     * children. Child counts are left alone, call totalChildCounts once
+     * everything has been merged.
+     */
+    public void merge(CompactTree other) {
+        if (other.signatures != signatures) {
+            throw new IllegalArgumentException("Trees do not share a signature table");
+        }
+        // Existing children by (parent index, signature index).
+        Map<Long, Integer> children = new HashMap<>();
+        for (int i = 1; i < size; i++) {
+            children.putIfAbsent(childKey(parent[i], signature[i]), i);
+        }
+        int[] mapped = new int[other.size];
+        mapped[0] = 0;
+        count[0] += other.count[0];
+        for (int i = 1; i < other.size; i++) {
+            int parentIndex = mapped[other.parent[i]];
+            long key = childKey(parentIndex, other.signature[i]);
+            Integer index = children.get(key);
+            if (index == null) {
+                index = addNode(parentIndex, other.signature[i], other.count[i]);
+                children.put(key, index);
+            } else {
+                count[index] += other.count[i];
+            }
+            mapped[i] = index;
+        }
+    }
+
+    // Sets a node's counts as they were when a tree was written out, see BinaryProfileReader.
+    public void setCounts(int index, double nodeCount, double nodeChildCount) {
+        count[index] = nodeCount;
+        childCount[index] = nodeChildCount;
+    }
+
+    private static long childKey(int parentIndex, int signatureIndex) {
+        return ((long) parentIndex << 32) | (signatureIndex & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Sets the child count of every node to the total count of everything
+     * under it and returns the root's. Children always have a higher index
+     * than their parent so one pass from the end covers the whole tree, and
+     * each node's children are summed in order so the totals are the same
+     * as NormalisedNode.totalChildCounts gives.
+     */
+    public double totalChildCounts() {
+        for (int i = size - 1; i >= 0; i--) {
+            double total = 0.0;
+            for (int child = firstChild[i]; child != NONE; child = nextSibling[child]) {
+                total += childCount[child];
+                total += count[child];
+            }
+            childCount[i] = total;
+        }
+        return childCount[0];
+    }
+
+    private void grow() {
+        int capacity = parent.length * 2;
+        parent = Arrays.copyOf(parent, capacity);
+        firstChild = Arrays.copyOf(firstChild, capacity);
+        lastChild = Arrays.copyOf(lastChild, capacity);
+        nextSibling = Arrays.copyOf(nextSibling, capacity);
+        signature = Arrays.copyOf(signature, capacity);
+        count = Arrays.copyOf(count, capacity);
+        childCount = Arrays.copyOf(childCount, capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getSelfId(int index) {
+        return index + NormalisedNode.ROOT_ID;
+    }
+
+    public int indexOf(long selfId) {
+        return (int) (selfId - NormalisedNode.ROOT_ID);
+    }
+
+    // The parent's id, 0 for the root.
+    public long getParentId(int index) {
+        return parent[index] == NONE ? 0 : getSelfId(parent[index]);
+    }
+
+    public int getParent(int index) {
+        return parent[index];
+    }
+
+    public int getFirstChild(int index) {
+        return firstChild[index];
+    }
+
+    public int getNextSibling(int index) {
+        return nextSibling[index];
+    }
+
+    public String getSignature(int index) {
+        return signatures.get(signature[index]);
+    }
+
+    public int getSignatureIndex(int index) {
+        return signature[index];
+    }
+
+    public double getCount(int index) {
+        return count[index];
+    }
+
+    public double getChildCount(int index) {
+        return childCount[index];
+    }
+
+    public int getSignatureCount() {
+        return signatures.size();
+    }
+
+    public String getSignatureAt(int signatureIndex) {
+        return signatures.get(signatureIndex);
+    }
+
+    public SignatureTable getSignatures() {
+        return signatures;
+    }
+
+}
@@ -1,140 +1,272 @@
 package org.eclipse.codewind;
 
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileWriter;
-import java.io.Writer;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 
-import com.ibm.java.diagnostics.healthcenter.api.HealthCenter;
 import com.ibm.java.diagnostics.healthcenter.api.HealthCenterException;
-import com.ibm.java.diagnostics.healthcenter.api.factory.HealthCenterFactory;
 import com.ibm.java.diagnostics.healthcenter.api.profiling.MethodProfileData;
 import com.ibm.java.diagnostics.healthcenter.api.profiling.MethodProfilingNode;
-import com.ibm.java.diagnostics.healthcenter.api.profiling.ProfilingData;
 
 public class HCProfileToJSON {
 
-    static NormalisedNode fakeRoot = new NormalisedNode("root", null, null);
-    static List<NormalisedNode> nodesToDump = new LinkedList<>();
-
-    static {
-        nodesToDump.add(fakeRoot);
-    }
+    static final String BINARY_FLAG = "--binary";
+    static final String BATCH_FLAG = "--batch";
+    static final String THREADS_FLAG = "--threads";
+    static final String DIFF_FLAG = "--diff";
+    static final String TOP_FLAG = "--top";
+    static final String WINDOW_FLAG = "--window";
 
     public static void main(String args[]) throws Exception {
 
-        if (args.length != 2) {
+        // Output is JSON unless --binary is given, see BinaryProfileWriter for that format.
+        boolean binary = false;
+        boolean batch = false;
+        boolean diff = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int top = ProfileDiffWriter.DEFAULT_TOP_REGRESSIONS;
+        long windowSeconds = 0;
+        List<String> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals(BINARY_FLAG)) {
+                binary = true;
+            } else if (args[i].equals(BATCH_FLAG)) {
+                batch = true;
+            } else if (args[i].equals(THREADS_FLAG) && i + 1 < args.length) {
+                try {
+                    threads = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    System.err.printf("Invalid thread count %s\n", args[i]);
+                    System.exit(1);
+                }
+            } else if (args[i].equals(DIFF_FLAG)) {
+                diff = true;
+            } else if (args[i].equals(TOP_FLAG) && i + 1 < args.length) {
+                try {
+                    top = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    System.err.printf("Invalid regression count %s\n", args[i]);
+                    System.exit(1);
+                }
+            } else if (args[i].equals(WINDOW_FLAG) && i + 1 < args.length) {
+                try {
+                    windowSeconds = Long.parseLong(args[++i]);
+                } catch (NumberFormatException e) {
+                    windowSeconds = -1;
+                }
+                if (windowSeconds <= 0) {
+                    System.err.printf("Invalid window length %s\n", args[i]);
+                    System.exit(1);
+                }
+            } else {
+                files.add(args[i]);
+            }
+        }
+
+        if (batch) {
+            System.exit(runBatch(files, binary, threads));
+        }
+        if (diff) {
+            System.exit(runDiff(files, top));
+        }
+        if (windowSeconds > 0) {
+            System.exit(runWindowed(files, windowSeconds, binary));
+        }
+
+        if (files.size() != 2) {
             System.err.printf("Invalid number of arguments %d\n", args.length);
+            printUsage();
             System.exit(1);
         }
-        // System.out.printf("Loading profiling data from %s\n", args[0]);
-        File hcdFile = new File(args[0]);
-        File outputFile = new File(args[1]);
-        Writer out = new BufferedWriter(new FileWriter(outputFile));
+        // System.out.printf("Loading profiling data from %s\n", files.get(0));
+        ProfileConverter conversion = new ProfileConverter(new File(files.get(0)), new File(files.get(1)), binary);
 
-        List<NormalisedNode> roots = new ArrayList<>();
-
-        // A fake root so there is one overall root to the tree.
+        try {
+            conversion.load();
+        } catch (FileNotFoundException | HealthCenterException e) {
+            e.printStackTrace();
+        }
 
         try {
-            HealthCenter hcAPI = HealthCenterFactory.connect(hcdFile);
-            ProfilingData profilingData = hcAPI.getProfilingData();
-            // MethodProfileData[] methodProfileData = profilingData.getProfilingEvents();
-            List<MethodProfileData> allProfilingData = new LinkedList<>();
-            for (MethodProfileData mpd: profilingData.getProfilingEvents() ) {
-                allProfilingData.add(mpd);
-            }
+            conversion.write();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
 
-            for (MethodProfileData mpd : getRoots(allProfilingData)) {
-                NormalisedNode root = new NormalisedNode(mpd.getMethodName(), fakeRoot, mpd);
-                roots.add(root);
-                fakeRoot.addChild(root);
-            }
+        System.out.println("Done.");
+        System.exit(0);
+    }
 
-            // Find everything that's a child of the current top layer of our profiling tree.
-            List<NormalisedNode> treeTop = roots;
-            nodesToDump.addAll(treeTop);
-
-            boolean foundParent = false;
-            do {
-                foundParent = false;
-                List<NormalisedNode> nextLayer = new LinkedList<>();
-                for (MethodProfileData mpd : allProfilingData) {
-                    // Does an item belong at this depth in the tree?
-                    for (NormalisedNode parent : treeTop) {
-                        if (isParent(parent, mpd)) {
-                            foundParent = true;
-                            NormalisedNode newNode = new NormalisedNode(mpd.getMethodName(), parent, mpd);
-                            nextLayer.add(newNode);
-                            parent.addChild(newNode);
-                            // System.out.printf("%s is a caller of %s\n", parent.signature, mpd.getMethodName());
-                        }
-                    }
-                }
-                treeTop = nextLayer;
-                nodesToDump.addAll(treeTop);
-                nextLayer = new LinkedList<>();
-                // System.out.printf("\n-------------\n");
-            } while (foundParent);
+    // Batch arguments are either an input directory and an output directory or
+    // any number of <hcd file> <output file> pairs. Returns the exit code.
+    private static int runBatch(List<String> files, boolean binary, int threads) throws InterruptedException {
+        BatchConverter converter = new BatchConverter(threads);
+        if (files.size() == 2 && new File(files.get(0)).isDirectory()) {
+            File outputDir = new File(files.get(1));
+            if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+                System.err.printf("Cannot create output directory %s\n", outputDir);
+                return 1;
+            }
+            converter.addDirectory(new File(files.get(0)), outputDir, binary);
+        } else if (files.size() > 0 && files.size() % 2 == 0) {
+            for (int i = 0; i < files.size(); i += 2) {
+                converter.add(new File(files.get(i)), new File(files.get(i + 1)), binary);
+            }
+        } else {
+            System.err.printf("Invalid number of arguments %d\n", files.size());
+            printUsage();
+            return 1;
+        }
 
-            fakeRoot.totalChildCounts();
+        List<BatchConverter.Result> results = converter.run();
+        BatchConverter.printSummary(results, System.out);
+        for (BatchConverter.Result result : results) {
+            if (!result.succeeded()) {
+                return 1;
+            }
+        }
+        return 0;
+    }
 
-        } catch (FileNotFoundException | HealthCenterException e) {
+    // Diff arguments are the base profile, the profile to compare with it and the
+    // output file. Returns the exit code.
+    private static int runDiff(List<String> files, int top) {
+        if (files.size() != 3) {
+            System.err.printf("Invalid number of arguments %d\n", files.size());
+            printUsage();
+            return 1;
+        }
+        try {
+            CompactTree base = ProfileConverter.loadTree(new File(files.get(0)));
+            CompactTree current = ProfileConverter.loadTree(new File(files.get(1)));
+            try (ProfileDiffWriter out = new ProfileDiffWriter(ProfileConverter.openOutput(new File(files.get(2))), top)) {
+                out.writeDiff(base, current);
+            }
+        } catch (Exception e) {
             e.printStackTrace();
+            return 1;
         }
+        System.out.println("Done.");
+        return 0;
+    }
 
-        try {
-            double totalCount = 0.0;
-            String separator = "";
-            out.write("{\n");
-            out.write("\"functions\": [\n");
-            for (NormalisedNode node : nodesToDump) {
-                out.write(separator);
-                separator = ",\n";
-                out.write(node.toJSON());
-                totalCount += node.getCount();
+    // Windowed arguments are any number of .hcd files or directories of them
+    // followed by the output directory. Returns the exit code.
+    private static int runWindowed(List<String> files, long windowSeconds, boolean binary) {
+        if (files.size() < 2) {
+            System.err.printf("Invalid number of arguments %d\n", files.size());
+            printUsage();
+            return 1;
+        }
+        File outputDir = new File(files.get(files.size() - 1));
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            System.err.printf("Cannot create output directory %s\n", outputDir);
+            return 1;
+        }
+        WindowedConverter converter = new WindowedConverter(windowSeconds * 1000, outputDir, binary);
+        for (String input : files.subList(0, files.size() - 1)) {
+            File inputFile = new File(input);
+            if (inputFile.isDirectory()) {
+                converter.addDirectory(inputFile);
+            } else {
+                converter.add(inputFile);
             }
-            out.write("\n],\n");
-            out.write(String.format("\"total_count\": %f\n", totalCount));
-            out.write("}\n");
+        }
+        try {
+            int windows = converter.run(System.out);
+            System.out.printf("Wrote %d windows.\n", windows);
         } catch (Exception e) {
             e.printStackTrace();
-        } finally {
-            out.close();
+            return 1;
         }
+        return 0;
+    }
 
-        System.out.println("Done.");
-        System.exit(0);
+    private static void printUsage() {
+        System.err.printf("Usage: HCProfileToJSON [%s] <hcd file> <output file>\n", BINARY_FLAG);
+        System.err.printf("       HCProfileToJSON %s [%s n] [%s] <hcd file> <output file> [<hcd file> <output file> ...]\n",
+                BATCH_FLAG, THREADS_FLAG, BINARY_FLAG);
+        System.err.printf("       HCProfileToJSON %s [%s n] [%s] <input dir> <output dir>\n", BATCH_FLAG, THREADS_FLAG,
+                BINARY_FLAG);
+        System.err.printf("       HCProfileToJSON %s [%s n] <base hcd file> <hcd file> <output file>\n", DIFF_FLAG,
+                TOP_FLAG);
+        System.err.printf("       HCProfileToJSON %s <seconds> [%s] <hcd file or dir> [...] <output dir>\n", WINDOW_FLAG,
+                BINARY_FLAG);
     }
 
-    private static boolean isParent(NormalisedNode possibleParent, MethodProfileData mpd) {
+    // The original layer by layer search, kept as the reference IndexedTreeBuilder is
+    // checked against. Returns the number of nodes added under root.
+    static int buildLayered(NormalisedNode root, List<MethodProfileData> allProfilingData) {
+        int built = 0;
+        long nextId = root.getSelfId() + 1;
+        List<NormalisedNode> roots = new ArrayList<>();
+        for (MethodProfileData mpd : getRoots(allProfilingData)) {
+            NormalisedNode node = new NormalisedNode(nextId++, mpd.getMethodName(), root, mpd);
+            roots.add(node);
+            root.addChild(node);
+        }
+
+        // Find everything that's a child of the current top layer of our profiling tree.
+        List<NormalisedNode> treeTop = roots;
+        built += treeTop.size();
+
+        boolean foundParent = false;
+        do {
+            foundParent = false;
+            List<NormalisedNode> nextLayer = new LinkedList<>();
+            for (MethodProfileData mpd : allProfilingData) {
+                // Does an item belong at this depth in the tree?
+                for (NormalisedNode parent : treeTop) {
+                    if (isParent(root, parent, mpd)) {
+                        foundParent = true;
+                        NormalisedNode newNode = new NormalisedNode(nextId++, mpd.getMethodName(), parent, mpd);
+                        nextLayer.add(newNode);
+                        parent.addChild(newNode);
+                    }
+                }
+            }
+            treeTop = nextLayer;
+            built += treeTop.size();
+        } while (foundParent);
+        return built;
+    }
+
+    private static boolean isParent(NormalisedNode root, NormalisedNode possibleParent, MethodProfileData mpd) {
         MethodProfilingNode[] callingMethods = mpd.getCallingMethods();
-        if (possibleParent == fakeRoot && callingMethods.length == 0) {
+        if (possibleParent == root && callingMethods.length == 0) {
             return true;
         }
         for (MethodProfilingNode caller : mpd.getCallingMethods()) {
             if (caller.getMethodName().equals(possibleParent.mpd.getMethodName())) {
-                return isParent(possibleParent.parent, caller);
+                return isParent(root, possibleParent.parent, caller);
             }
         }
         return false;
     }
 
-    private static boolean isParent(NormalisedNode possibleParent, MethodProfilingNode mpn) {
-        MethodProfilingNode[] callingMethods = mpn.getCallingMethods();
-        if (possibleParent == fakeRoot && callingMethods.length == 0) {
-            return true;
-        }
-        for (MethodProfilingNode caller : mpn.getCallingMethods()) {
-            if (caller.getMethodName().equals(possibleParent.mpd.getMethodName())) {
-                return isParent(possibleParent.parent, caller);
+    // Walks up the tree and the caller chain together, a loop rather than recursion
+    // so the depth of the stack being matched doesn't matter.
+    private static boolean isParent(NormalisedNode root, NormalisedNode possibleParent, MethodProfilingNode mpn) {
+        while (true) {
+            MethodProfilingNode[] callingMethods = mpn.getCallingMethods();
+            if (possibleParent == root && callingMethods.length == 0) {
+                return true;
             }
+            MethodProfilingNode matchingCaller = null;
+            for (MethodProfilingNode caller : callingMethods) {
+                if (caller.getMethodName().equals(possibleParent.mpd.getMethodName())) {
+                    matchingCaller = caller;
+                    break;
+                }
+            }
+            if (matchingCaller == null) {
+                return false;
+            }
+            possibleParent = possibleParent.parent;
+            mpn = matchingCaller;
         }
-        return false;
     }
 
     private static ArrayList<MethodProfileData> getRoots(List<MethodProfileData> methodProfileData) {
@@ -0,0 +1,370 @@
+package org.eclipse.codewind;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+import com.ibm.java.diagnostics.healthcenter.api.profiling.MethodProfileData;
+import com.ibm.java.diagnostics.healthcenter.api.profiling.MethodProfilingNode;
+
+/**
+ * Builds the normalised call tree in a single pass over the profiling data.
+ *
+ * Every method's caller tree is walked once and each complete caller path
+ * (from the method up to a caller with no callers of its own) is recorded
+ * in a trie keyed by method name, top of stack first. A node in the
+ * normalised tree then finds its children by looking up the trie entry for
+ * its own path instead of testing every method against every node.
+ *
+ * Method names are interned to dense int ids as the data is indexed, once
+ * per profile, so matching paths and looking up a caller's weight are int
+ * comparisons. Each method keeps its direct callers' weights in a small
+ * hash keyed by caller id.
+ *
+ * Nodes are created in the same order as the layer-by-layer search in
+ * HCProfileToJSON (by depth, then by method, then by parent) so ids,
+ * children order and therefore the JSON output are identical. The tree is
+ * built into a CompactTree rather than as NormalisedNode objects.
+ */
+public class IndexedTreeBuilder {
+
+    // Parent id for the root layer, which has no caller to look up.
+    private static final int ROOT_PARENT = -1;
+
+    private static int slot(int key, int mask) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private static class PathTrie {
+        // Children keyed by signature id, open addressing with linear probing.
+        private int[] childIds;
+        private PathTrie[] children;
+        private int childCount = 0;
+        // Indexes (into the profiling data list) of the methods whose caller path ends here, ascending.
+        private int[] methods = new int[0];
+        private int methodCount = 0;
+
+        PathTrie child(int id) {
+            if (children == null) {
+                return null;
+            }
+            int mask = children.length - 1;
+            for (int i = slot(id, mask); children[i] != null; i = (i + 1) & mask) {
+                if (childIds[i] == id) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        PathTrie childOrCreate(int id) {
+            PathTrie child = child(id);
+            if (child == null) {
+                if (children == null || (childCount + 1) * 2 > children.length) {
+                    resize(children == null ? 4 : children.length * 2);
+                }
+                child = new PathTrie();
+                put(id, child);
+                childCount++;
+            }
+            return child;
+        }
+
+        private void put(int id, PathTrie child) {
+            int mask = children.length - 1;
+            int i = slot(id, mask);
+            while (children[i] != null) {
+                i = (i + 1) & mask;
+            }
+            childIds[i] = id;
+            children[i] = child;
+        }
+
+        private void resize(int capacity) {
+            int[] oldIds = childIds;
+            PathTrie[] oldChildren = children;
+            childIds = new int[capacity];
+            children = new PathTrie[capacity];
+            if (oldChildren != null) {
+                for (int i = 0; i < oldChildren.length; i++) {
+                    if (oldChildren[i] != null) {
+                        put(oldIds[i], oldChildren[i]);
+                    }
+                }
+            }
+        }
+
+        void addMethod(int index) {
+            if (methodCount == methods.length) {
+                methods = Arrays.copyOf(methods, Math.max(4, methodCount * 2));
+            }
+            methods[methodCount++] = index;
+        }
+    }
+
+    // A method's direct callers, caller id to weight. Where a caller appears more
+    // than once the first wins, as in NormalisedNode.calculateCount.
+    private static class CallerWeights {
+        private static final CallerWeights NONE = new CallerWeights(0);
+
+        private final int[] ids;
+        private final double[] weights;
+        private final boolean[] used;
+
+        CallerWeights(int callerCount) {
+            int capacity = Integer.highestOneBit(Math.max(1, callerCount) * 2 - 1) << 1;
+            ids = new int[capacity];
+            weights = new double[capacity];
+            used = new boolean[capacity];
+        }
+
+        void putIfAbsent(int id, double weight) {
+            int mask = ids.length - 1;
+            int i = slot(id, mask);
+            while (used[i]) {
+                if (ids[i] == id) {
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            ids[i] = id;
+            weights[i] = weight;
+            used[i] = true;
+        }
+
+        // The slot holding id, or -1.
+        int find(int id) {
+            int mask = ids.length - 1;
+            for (int i = slot(id, mask); used[i]; i = (i + 1) & mask) {
+                if (ids[i] == id) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        double weightAt(int slot) {
+            return weights[slot];
+        }
+    }
+
+    private final List<MethodProfileData> allProfilingData;
+    private final PathTrie rootPaths = new PathTrie();
+
+    // Per profile signature ids, and per method (by index into allProfilingData)
+    // its id, sample count, whether it has callers and its callers' weights.
+    private final SignatureTable signatures = new SignatureTable();
+    private final int[] methodIds;
+    private final long[] sampleCounts;
+    private final boolean[] hasCallers;
+    private final CallerWeights[] callerWeights;
+
+    // Marks ids already followed in the caller level being set up, see CallerLevel.
+    private int[] seenStamps = new int[64];
+    private int stamp = 0;
+
+    public IndexedTreeBuilder(List<MethodProfileData> allProfilingData) {
+        this.allProfilingData = new ArrayList<>(allProfilingData);
+        int size = this.allProfilingData.size();
+        methodIds = new int[size];
+        sampleCounts = new long[size];
+        hasCallers = new boolean[size];
+        callerWeights = new CallerWeights[size];
+        index();
+    }
+
+    /**
+     * Builds the tree under the root of an empty CompactTree and returns the
+     * number of nodes added.
+     */
+    public int build(CompactTree tree) {
+        int built = 0;
+
+        // Signature ids here are the builder's own. They are mapped to the tree's
+        // signature table as each is first used, so its table stays in order of use.
+        int[] treeSignatures = new int[signatures.size()];
+        Arrays.fill(treeSignatures, CompactTree.NONE);
+
+        // The current layer: node index, trie entry for the node's path and the
+        // signature id the node's count was matched against.
+        int[] treeTop = new int[rootPaths.methodCount];
+        PathTrie[] treeTopPaths = new PathTrie[rootPaths.methodCount];
+        int[] treeTopIds = new int[rootPaths.methodCount];
+        for (int i = 0; i < rootPaths.methodCount; i++) {
+            int method = rootPaths.methods[i];
+            int id = methodIds[method];
+            treeTop[i] = tree.addNode(0, treeSignature(tree, treeSignatures, id), countFor(method, ROOT_PARENT));
+            treeTopPaths[i] = rootPaths.child(id);
+            treeTopIds[i] = id;
+        }
+
+        while (treeTop.length > 0) {
+            built += treeTop.length;
+
+            // Pack (method, parent) pairs for the next layer into longs, so sorting them
+            // gives the same method-then-parent order as the layered search.
+            int pendingCount = 0;
+            for (PathTrie path : treeTopPaths) {
+                pendingCount += path != null ? path.methodCount : 0;
+            }
+            long[] pending = new long[pendingCount];
+            int next = 0;
+            for (int p = 0; p < treeTop.length; p++) {
+                PathTrie path = treeTopPaths[p];
+                if (path == null) {
+                    continue;
+                }
+                for (int i = 0; i < path.methodCount; i++) {
+                    pending[next++] = ((long) path.methods[i] << 32) | p;
+                }
+            }
+            Arrays.sort(pending);
+
+            int[] nextLayer = new int[pendingCount];
+            PathTrie[] nextLayerPaths = new PathTrie[pendingCount];
+            int[] nextLayerIds = new int[pendingCount];
+            for (int i = 0; i < pendingCount; i++) {
+                int method = (int) (pending[i] >>> 32);
+                int parentPosition = (int) pending[i];
+                int id = methodIds[method];
+                nextLayer[i] = tree.addNode(treeTop[parentPosition], treeSignature(tree, treeSignatures, id),
+                        countFor(method, treeTopIds[parentPosition]));
+                nextLayerPaths[i] = treeTopPaths[parentPosition].child(id);
+                nextLayerIds[i] = id;
+            }
+            treeTop = nextLayer;
+            treeTopPaths = nextLayerPaths;
+            treeTopIds = nextLayerIds;
+        }
+        return built;
+    }
+
+    private int treeSignature(CompactTree tree, int[] treeSignatures, int id) {
+        if (treeSignatures[id] == CompactTree.NONE) {
+            treeSignatures[id] = tree.intern(signatures.get(id));
+        }
+        return treeSignatures[id];
+    }
+
+    // The id a signature has in this profile, or -1 if no method or caller has it.
+    int signatureId(String signature) {
+        return signatures.indexOf(signature);
+    }
+
+    /**
+     * The count for a method (by index into the profiling data) when called
+     * from a parent with the given signature id. The same as
+     * NormalisedNode.calculateCount, but the caller is found by id rather than
+     * by comparing names. If there is no such caller the error is printed and
+     * the count is 0.
+     */
+    double countFor(int method, int parentId) {
+        long totalCount = sampleCounts[method];
+        if (!hasCallers[method] && totalCount == 0) {
+            return 0;
+        }
+        int slot = callerWeights[method].find(parentId);
+        if (slot < 0) {
+            new Exception("Parent node with matching signature not found.").printStackTrace();
+            return 0;
+        }
+        // The weighting of the calling methods is a percentage.
+        return (((double) totalCount) * callerWeights[method].weightAt(slot)) / 100.0;
+    }
+
+    private void index() {
+        for (int i = 0; i < allProfilingData.size(); i++) {
+            MethodProfileData mpd = allProfilingData.get(i);
+            MethodProfilingNode[] callers = mpd.getCallingMethods();
+            methodIds[i] = signatures.intern(mpd.getMethodName());
+            sampleCounts[i] = mpd.getMethodSampleCount();
+            hasCallers[i] = callers.length > 0;
+            if (callers.length == 0) {
+                callerWeights[i] = CallerWeights.NONE;
+            } else {
+                CallerWeights weights = new CallerWeights(callers.length);
+                for (MethodProfilingNode caller : callers) {
+                    weights.putIfAbsent(signatures.intern(caller.getMethodName()), caller.getWeight());
+                }
+                callerWeights[i] = weights;
+            }
+        }
+        for (int i = 0; i < allProfilingData.size(); i++) {
+            indexCallerPaths(i, allProfilingData.get(i).getCallingMethods());
+        }
+    }
+
+    // One level of a caller tree being walked by indexCallerPaths: the callers to
+    // follow, with only the first of any that share a name, and their ids.
+    private class CallerLevel {
+        final boolean top;
+        final MethodProfilingNode[] callers;
+        final int[] ids;
+        int next = 0;
+
+        CallerLevel(MethodProfilingNode[] all) {
+            top = all.length == 0;
+            if (all.length <= 1) {
+                callers = all;
+                ids = all.length == 0 ? new int[0] : new int[] { signatures.intern(all[0].getMethodName()) };
+                return;
+            }
+            // Ids are dense so a stamp per id marks the ones already taken without
+            // hashing. The stamp is new for each level and only used here.
+            stamp++;
+            MethodProfilingNode[] kept = new MethodProfilingNode[all.length];
+            int[] keptIds = new int[all.length];
+            int count = 0;
+            for (MethodProfilingNode caller : all) {
+                int id = signatures.intern(caller.getMethodName());
+                if (id >= seenStamps.length) {
+                    seenStamps = Arrays.copyOf(seenStamps, Math.max(id + 1, seenStamps.length * 2));
+                }
+                if (seenStamps[id] != stamp) {
+                    seenStamps[id] = stamp;
+                    kept[count] = caller;
+                    keptIds[count++] = id;
+                }
+            }
+            callers = Arrays.copyOf(kept, count);
+            ids = Arrays.copyOf(keptIds, count);
+        }
+    }
+
+    // Records every complete caller path for one method. As in HCProfileToJSON.isParent
+    // only the first caller with a given name is followed at each level. Uses an
+    // explicit stack as caller chains can be thousands of frames deep.
+    private void indexCallerPaths(int methodIndex, MethodProfilingNode[] callers) {
+        int[] path = new int[16];
+        int pathLength = 0;
+        Deque<CallerLevel> levels = new ArrayDeque<>();
+        levels.push(new CallerLevel(callers));
+        while (!levels.isEmpty()) {
+            CallerLevel level = levels.peek();
+            if (level.top) {
+                PathTrie trie = rootPaths;
+                for (int i = pathLength - 1; i >= 0; i--) {
+                    trie = trie.childOrCreate(path[i]);
+                }
+                trie.addMethod(methodIndex);
+            } else if (level.next < level.callers.length) {
+                int next = level.next++;
+                if (pathLength == path.length) {
+                    path = Arrays.copyOf(path, pathLength * 2);
+                }
+                path[pathLength++] = level.ids[next];
+                levels.push(new CallerLevel(level.callers[next].getCallingMethods()));
+                continue;
+            }
+            // Finished with this level, step back down the path.
+            levels.pop();
+            if (!levels.isEmpty()) {
+                pathLength--;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,60 @@
+package org.eclipse.codewind;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Streams a normalised tree out as JSON.
+ *
+ * Nodes are written in id order as the tree is walked, with no strings
+ * built per node. The layout matches what NormalisedNode.toJSON used to
+ * produce, with signatures now escaped so the output is always valid JSON.
+ */
+public class JSONProfileWriter extends StreamingJSONWriter implements ProfileWriter {
+
+    public JSONProfileWriter(WritableByteChannel channel) {
+        super(channel);
+    }
+
+    @Override
+    public void writeTree(CompactTree tree) throws IOException {
+        double totalCount = 0.0;
+        write("{\n");
+        write("\"functions\": [\n");
+        for (int i = 0; i < tree.size(); i++) {
+            if (i > 0) {
+                write(",\n");
+            }
+            writeNode(tree, i);
+            totalCount += tree.getCount(i);
+        }
+        write("\n],\n");
+        write("\"total_count\": ");
+        writeFixed(totalCount);
+        write("\n");
+        write("}\n");
+    }
+
+    private void writeNode(CompactTree tree, int index) throws IOException {
+        write("{\n");
+        write("\"self\": ");
+        writeLong(tree.getSelfId(index));
+        write(",\n");
+        write("\"parent\": ");
+        writeLong(tree.getParentId(index));
+        write(",\n");
+        write("\"location\": {\n");
+        write("\t\"signature\": \"");
+        writeEscaped(tree.getSignature(index));
+        write("\"\n");
+        write("},\n");
+        write("\"count\": ");
+        writeFixed(tree.getCount(index));
+        write(",\n");
+        write("\"child_count\": ");
+        writeFixed(tree.getChildCount(index));
+        write("\n");
+        write("}");
+    }
+
+}
@@ -1,6 +1,10 @@
 package org.eclipse.codewind;
 
-import java.text.Format;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -9,7 +13,12 @@ import com.ibm.java.diagnostics.healthcenter.api.profiling.MethodProfilingNode;
 
 public class NormalisedNode {
 
-    static long lastId = 1;
+    public interface Visitor {
+        void visit(NormalisedNode node) throws IOException;
+    }
+
+    // Ids are per tree, the root is always 1 and 0 means no parent.
+    public static final long ROOT_ID = 1;
 
     // Fields to include in JSON
     public final String signature;
@@ -24,12 +33,12 @@ public class NormalisedNode {
 
     private List<NormalisedNode> children;
 
-    public NormalisedNode(String signature, NormalisedNode parent, MethodProfileData mpd) {
+    public NormalisedNode(long selfId, String signature, NormalisedNode parent, MethodProfileData mpd) {
         this.signature = signature;
         this.parent = parent;
         this.mpd = mpd;
         this.depth = parent != null ? parent.depth + 1 : 0;
-        this.selfId = lastId++;
+        this.selfId = selfId;
         this.children = new LinkedList<NormalisedNode>();
         try {
             this.count = calculateCount();
@@ -38,26 +47,27 @@ public class NormalisedNode {
         }
     }
 
-    public String toJSON() throws Exception {
-        String jsonTemplate =
-          "{\n"
-        + "\"self\": %d,\n"
-        + "\"parent\": %d,\n"
-        + "\"location\": {\n"
-        + "\t\"signature\": \"%s\"\n"
-        + "},\n"
-        + "\"count\": %f,\n"
-        + "\"child_count\": %f\n"
-        + "}";
-
-        long parentId = this.parent != null ? this.parent.selfId : 0;
-        return String.format(jsonTemplate, this.selfId, parentId, this.signature, this.count, this.childCount);
+    // A fake root so there is one overall root to the tree.
+    public static NormalisedNode createRoot() {
+        return new NormalisedNode(ROOT_ID, "root", null, null);
+    }
+
+    public long getSelfId() {
+        return this.selfId;
     }
 
     public double getCount() {
         return this.count;
     }
 
+    public double getChildCount() {
+        return this.childCount;
+    }
+
+    public List<NormalisedNode> getChildren() {
+        return this.children;
+    }
+
     // We need to get the total count of samples for this position in the tree.
     // That means taking the total samples for this method and only returning the
     // fraction that came from this nodes parent.
@@ -66,6 +76,12 @@ public class NormalisedNode {
             // This should only happen for the root node.
             return 0;
         }
+        return calculateCount(this.mpd, this.parent.signature);
+    }
+
+    // The count for mpd when called from a parent with the given signature. Used by the
+    // reference layered search, IndexedTreeBuilder.countFor does the same by signature id.
+    static double calculateCount(MethodProfileData mpd, String parentSignature) throws Exception {
         long totalCount = mpd.getMethodSampleCount();
         if (mpd.getCallingMethods().length == 0 && totalCount == 0) {
             // Only return 0 if totalCount is 0 as well.
@@ -77,8 +93,7 @@ public class NormalisedNode {
         // System.err.printf("Calling method count: %d\n", mpd.getCallingMethods().length);
         // System.err.printf("Sample count: %d\n", totalCount);
         for( MethodProfilingNode mpn: mpd.getCallingMethods()) {
-            if( mpn.getMethodName() == this.parent.signature ) {
-                // System.err.printf("Parent for %s is %s\n", this.signature, this.parent.signature);
+            if( mpn.getMethodName().equals(parentSignature) ) {
                 parentpn = mpn;
                 break;
             }
@@ -97,17 +112,71 @@ public class NormalisedNode {
 	}
 
     // This should only be called once, on the root node.
+    // Works through the tree with an explicit stack so deep call stacks can't overflow
+    // the thread stack. Each node's running total has its children added in the same
+    // order as totalChildCountsRecursive so the results are identical.
+    @SuppressWarnings({"unchecked", "rawtypes"})
     public double totalChildCounts() throws Exception {
-        // if( this.parent != null) {
-        //     throw new Exception("Do not call totalChildCounts on anything but a root node.");
-        // }
+        int capacity = 64;
+        NormalisedNode[] nodes = new NormalisedNode[capacity];
+        Iterator<NormalisedNode>[] pending = new Iterator[capacity];
+        double[] totals = new double[capacity];
+        int top = 0;
+        nodes[0] = this;
+        pending[0] = this.children.iterator();
+        totals[0] = 0.0;
+        while (top >= 0) {
+            if (pending[top].hasNext()) {
+                NormalisedNode child = pending[top].next();
+                if (++top == capacity) {
+                    capacity *= 2;
+                    nodes = Arrays.copyOf(nodes, capacity);
+                    pending = Arrays.copyOf(pending, capacity);
+                    totals = Arrays.copyOf(totals, capacity);
+                }
+                nodes[top] = child;
+                pending[top] = child.children.iterator();
+                totals[top] = 0.0;
+                continue;
+            }
+            // Everything under this node has been totalled, add it to its parent's total.
+            NormalisedNode node = nodes[top];
+            node.childCount = totals[top];
+            if (--top >= 0) {
+                totals[top] += node.childCount;
+                totals[top] += node.count;
+            }
+        }
+        return this.childCount;
+    }
+
+    // The original recursive version, kept as the reference totalChildCounts is benchmarked against.
+    double totalChildCountsRecursive() throws Exception {
         double total = 0.0;
         for (NormalisedNode child: this.children) {
-          total += child.totalChildCounts();
+          total += child.totalChildCountsRecursive();
           total += child.count;
         }
         this.childCount = total;
         return this.childCount;
       }
 
-}
\ No newline at end of file
+    // Visits node and everything under it in id order, which is the order the tree was
+    // built in. Only one layer of the tree is held at a time.
+    public static void visitInIdOrder(NormalisedNode node, Visitor visitor) throws IOException {
+        Comparator<NormalisedNode> byId = (a, b) -> Long.compare(a.selfId, b.selfId);
+        List<NormalisedNode> layer = new ArrayList<>();
+        layer.add(node);
+        while (!layer.isEmpty()) {
+            List<NormalisedNode> nextLayer = new ArrayList<>();
+            for (NormalisedNode current : layer) {
+                visitor.visit(current);
+                nextLayer.addAll(current.children);
+            }
+            // Each child list is already in id order but children of different parents interleave.
+            nextLayer.sort(byId);
+            layer = nextLayer;
+        }
+    }
+
+}
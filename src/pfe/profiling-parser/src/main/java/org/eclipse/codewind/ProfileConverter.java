@@ -0,0 +1,93 @@
+package org.eclipse.codewind;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedList;
+import java.util.List;
+
+import com.ibm.java.diagnostics.healthcenter.api.HealthCenter;
+import com.ibm.java.diagnostics.healthcenter.api.factory.HealthCenterFactory;
+import com.ibm.java.diagnostics.healthcenter.api.profiling.MethodProfileData;
+import com.ibm.java.diagnostics.healthcenter.api.profiling.ProfilingData;
+
+/**
+ * Converts one .hcd file. All the state for a conversion lives here so
+ * several can run at the same time.
+ */
+public class ProfileConverter {
+
+    private final File hcdFile;
+    private final File outputFile;
+    private final boolean binary;
+
+    private CompactTree tree = new CompactTree();
+
+    public ProfileConverter(File hcdFile, File outputFile, boolean binary) {
+        this.hcdFile = hcdFile;
+        this.outputFile = outputFile;
+        this.binary = binary;
+    }
+
+    public void convert() throws Exception {
+        load();
+        write();
+    }
+
+    // Reads the profiling data and builds the normalised tree.
+    public void load() throws Exception {
+        tree = loadTree(hcdFile);
+    }
+
+    // Writes out whatever tree has been built, just the root if load failed.
+    public void write() throws IOException {
+        writeTree(tree, outputFile, binary);
+    }
+
+    // Reads an .hcd file into a normalised tree with child counts totalled.
+    public static CompactTree loadTree(File hcdFile) throws Exception {
+        return loadTree(hcdFile, new SignatureTable());
+    }
+
+    // As above with the signatures interned into a table shared with other trees.
+    public static CompactTree loadTree(File hcdFile, SignatureTable signatures) throws Exception {
+        HealthCenter hcAPI = HealthCenterFactory.connect(hcdFile);
+        ProfilingData profilingData = hcAPI.getProfilingData();
+        List<MethodProfileData> allProfilingData = new LinkedList<>();
+        for (MethodProfileData mpd: profilingData.getProfilingEvents() ) {
+            allProfilingData.add(mpd);
+        }
+
+        CompactTree tree = new CompactTree(signatures);
+        new IndexedTreeBuilder(allProfilingData).build(tree);
+
+        tree.totalChildCounts();
+        return tree;
+    }
+
+    static void writeTree(CompactTree tree, File outputFile, boolean binary) throws IOException {
+        FileChannel channel = openOutput(outputFile);
+        try (ProfileWriter out = binary ? new BinaryProfileWriter(channel) : new JSONProfileWriter(channel)) {
+            out.writeTree(tree);
+        }
+    }
+
+    static FileChannel openOutput(File outputFile) throws IOException {
+        return FileChannel.open(outputFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    public int getNodeCount() {
+        return tree.size();
+    }
+
+    public File getHcdFile() {
+        return hcdFile;
+    }
+
+    public File getOutputFile() {
+        return outputFile;
+    }
+
+}
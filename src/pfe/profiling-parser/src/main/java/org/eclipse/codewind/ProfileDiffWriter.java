@@ -0,0 +1,263 @@
+package org.eclipse.codewind;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Compares two normalised trees, typically from load runs before and after
+ * a change, and streams the differences out as JSON.
+ *
+ * The trees are aligned by signature path: two nodes match if their
+ * signatures and those of all their ancestors match. The aligned tree is
+ * walked once, depth first, writing every node present in either tree with
+ * its counts from both, and the nodes whose own count grew the most are
+ * collected on the way. The output is:
+ *
+ * <pre>
+ * {
+ * "functions": [
+ * { "self": 1, "parent": 0, "location": { "signature": "root" },
+ *   "base_count": 0.0, "count": 0.0, "count_delta": 0.0,
+ *   "base_child_count": 10.0, "child_count": 12.0, "child_count_delta": 2.0 },
+ * ...
+ * ],
+ * "base_total_count": 10.0,
+ * "total_count": 12.0,
+ * "top_regressions": [
+ * { "self": 7, "signature": "...", "count_delta": 1.5, "child_count_delta": 0.5 },
+ * ...
+ * ]
+ * }
+ * </pre>
+ *
+ * Ids are new and belong to this output only, parents always come before
+ * their children. A node only in one tree has zero counts for the other.
+ * top_regressions is ordered by count_delta, largest first, and only
+ * includes nodes whose count went up.
+ */
+public class ProfileDiffWriter extends StreamingJSONWriter {
+
+    public static final int DEFAULT_TOP_REGRESSIONS = 20;
+
+    private static class Regression {
+        final long selfId;
+        final String signature;
+        final double countDelta;
+        final double childCountDelta;
+
+        Regression(long selfId, String signature, double countDelta, double childCountDelta) {
+            this.selfId = selfId;
+            this.signature = signature;
+            this.countDelta = countDelta;
+            this.childCountDelta = childCountDelta;
+        }
+    }
+
+    private final int topRegressions;
+
+    // Aligned node pairs waiting to be written, index in each tree or NONE, and parent id.
+    private int[] stackBase = new int[64];
+    private int[] stackCurrent = new int[64];
+    private long[] stackParent = new long[64];
+    private int stackSize = 0;
+
+    public ProfileDiffWriter(WritableByteChannel channel, int topRegressions) {
+        super(channel);
+        this.topRegressions = topRegressions;
+    }
+
+    public void writeDiff(CompactTree base, CompactTree current) throws IOException {
+        // Smallest count delta at the head so it's the one dropped when the queue is full.
+        PriorityQueue<Regression> regressions = new PriorityQueue<>(Math.max(1, topRegressions),
+                (a, b) -> a.countDelta != b.countDelta ? Double.compare(a.countDelta, b.countDelta)
+                        : Long.compare(b.selfId, a.selfId));
+
+        write("{\n");
+        write("\"functions\": [\n");
+        long nextId = NormalisedNode.ROOT_ID;
+        push(0, 0, 0);
+        while (stackSize > 0) {
+            stackSize--;
+            int baseIndex = stackBase[stackSize];
+            int currentIndex = stackCurrent[stackSize];
+            long parentId = stackParent[stackSize];
+            long selfId = nextId++;
+
+            String signature = currentIndex != CompactTree.NONE ? current.getSignature(currentIndex)
+                    : base.getSignature(baseIndex);
+            double baseCount = baseIndex != CompactTree.NONE ? base.getCount(baseIndex) : 0.0;
+            double count = currentIndex != CompactTree.NONE ? current.getCount(currentIndex) : 0.0;
+            double baseChildCount = baseIndex != CompactTree.NONE ? base.getChildCount(baseIndex) : 0.0;
+            double childCount = currentIndex != CompactTree.NONE ? current.getChildCount(currentIndex) : 0.0;
+
+            if (selfId != NormalisedNode.ROOT_ID) {
+                write(",\n");
+            }
+            writeNode(selfId, parentId, signature, baseCount, count, baseChildCount, childCount);
+
+            double countDelta = count - baseCount;
+            if (countDelta > 0 && topRegressions > 0) {
+                if (regressions.size() < topRegressions) {
+                    regressions.add(new Regression(selfId, signature, countDelta, childCount - baseChildCount));
+                } else if (countDelta > regressions.peek().countDelta) {
+                    regressions.poll();
+                    regressions.add(new Regression(selfId, signature, countDelta, childCount - baseChildCount));
+                }
+            }
+
+            pushChildren(base, baseIndex, current, currentIndex, selfId);
+        }
+        write("\n],\n");
+        write("\"base_total_count\": ");
+        writeFixed(totalCount(base));
+        write(",\n");
+        write("\"total_count\": ");
+        writeFixed(totalCount(current));
+        write(",\n");
+
+        List<Regression> ranked = new ArrayList<>(regressions);
+        Collections.sort(ranked, Collections.reverseOrder(regressions.comparator()));
+        write("\"top_regressions\": [\n");
+        for (int i = 0; i < ranked.size(); i++) {
+            Regression regression = ranked.get(i);
+            if (i > 0) {
+                write(",\n");
+            }
+            write("{\n");
+            write("\"self\": ");
+            writeLong(regression.selfId);
+            write(",\n");
+            write("\"signature\": \"");
+            writeEscaped(regression.signature);
+            write("\",\n");
+            write("\"count_delta\": ");
+            writeFixed(regression.countDelta);
+            write(",\n");
+            write("\"child_count_delta\": ");
+            writeFixed(regression.childCountDelta);
+            write("\n");
+            write("}");
+        }
+        write("\n]\n");
+        write("}\n");
+    }
+
+    private void writeNode(long selfId, long parentId, String signature, double baseCount, double count,
+            double baseChildCount, double childCount) throws IOException {
+        write("{\n");
+        write("\"self\": ");
+        writeLong(selfId);
+        write(",\n");
+        write("\"parent\": ");
+        writeLong(parentId);
+        write(",\n");
+        write("\"location\": {\n");
+        write("\t\"signature\": \"");
+        writeEscaped(signature);
+        write("\"\n");
+        write("},\n");
+        write("\"base_count\": ");
+        writeFixed(baseCount);
+        write(",\n");
+        write("\"count\": ");
+        writeFixed(count);
+        write(",\n");
+        write("\"count_delta\": ");
+        writeFixed(count - baseCount);
+        write(",\n");
+        write("\"base_child_count\": ");
+        writeFixed(baseChildCount);
+        write(",\n");
+        write("\"child_count\": ");
+        writeFixed(childCount);
+        write(",\n");
+        write("\"child_count_delta\": ");
+        writeFixed(childCount - baseChildCount);
+        write("\n");
+        write("}");
+    }
+
+    // Pairs up the children of an aligned node by signature and pushes them so they
+    // come off the stack in order: the current tree's children first, then any only
+    // in the base tree.
+    private void pushChildren(CompactTree base, int baseIndex, CompactTree current, int currentIndex, long parentId) {
+        int firstBase = baseIndex != CompactTree.NONE ? base.getFirstChild(baseIndex) : CompactTree.NONE;
+        int firstCurrent = currentIndex != CompactTree.NONE ? current.getFirstChild(currentIndex) : CompactTree.NONE;
+        if (firstBase == CompactTree.NONE && firstCurrent == CompactTree.NONE) {
+            return;
+        }
+
+        // Signatures can repeat among siblings, match them up in order. The deques
+        // hold positions in baseOrder.
+        Map<String, Deque<Integer>> unmatchedBase = new HashMap<>();
+        List<Integer> baseOrder = new ArrayList<>();
+        for (int child = firstBase; child != CompactTree.NONE; child = base.getNextSibling(child)) {
+            unmatchedBase.computeIfAbsent(base.getSignature(child), k -> new ArrayDeque<>()).add(baseOrder.size());
+            baseOrder.add(child);
+        }
+        boolean[] matched = new boolean[baseOrder.size()];
+
+        int start = stackSize;
+        for (int child = firstCurrent; child != CompactTree.NONE; child = current.getNextSibling(child)) {
+            Deque<Integer> candidates = unmatchedBase.get(current.getSignature(child));
+            Integer position = candidates != null ? candidates.poll() : null;
+            int baseChild = CompactTree.NONE;
+            if (position != null) {
+                matched[position] = true;
+                baseChild = baseOrder.get(position);
+            }
+            push(baseChild, child, parentId);
+        }
+        for (int i = 0; i < baseOrder.size(); i++) {
+            if (!matched[i]) {
+                push(baseOrder.get(i), CompactTree.NONE, parentId);
+            }
+        }
+        reverse(start, stackSize);
+    }
+
+    private void push(int baseIndex, int currentIndex, long parentId) {
+        if (stackSize == stackBase.length) {
+            int capacity = stackSize * 2;
+            stackBase = Arrays.copyOf(stackBase, capacity);
+            stackCurrent = Arrays.copyOf(stackCurrent, capacity);
+            stackParent = Arrays.copyOf(stackParent, capacity);
+        }
+        stackBase[stackSize] = baseIndex;
+        stackCurrent[stackSize] = currentIndex;
+        stackParent[stackSize] = parentId;
+        stackSize++;
+    }
+
+    private void reverse(int from, int to) {
+        for (int i = from, j = to - 1; i < j; i++, j--) {
+            int base = stackBase[i];
+            stackBase[i] = stackBase[j];
+            stackBase[j] = base;
+            int current = stackCurrent[i];
+            stackCurrent[i] = stackCurrent[j];
+            stackCurrent[j] = current;
+            long parent = stackParent[i];
+            stackParent[i] = stackParent[j];
+            stackParent[j] = parent;
+        }
+    }
+
+    private static double totalCount(CompactTree tree) {
+        double total = 0.0;
+        for (int i = 0; i < tree.size(); i++) {
+            total += tree.getCount(i);
+        }
+        return total;
+    }
+
+}
@@ -0,0 +1,17 @@
+package org.eclipse.codewind;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Writes a normalised tree out in one of the supported output formats.
+ */
+public interface ProfileWriter extends Closeable {
+
+    /**
+     * Writes the whole tree, root included, followed by the total sample
+     * count. totalChildCounts must already have been called.
+     */
+    void writeTree(CompactTree tree) throws IOException;
+
+}
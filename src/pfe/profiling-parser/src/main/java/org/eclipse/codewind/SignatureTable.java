@@ -0,0 +1,46 @@
+package org.eclipse.codewind;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Numbers method signatures densely from 0 in order of first use. One table
+ * can be shared by several CompactTrees so the same signature has the same
+ * index in all of them.
+ */
+public class SignatureTable {
+
+    private String[] signatures = new String[64];
+    private int size = 0;
+    private final Map<String, Integer> indexes = new HashMap<>();
+
+    // Returns the index of a signature, adding it if needed.
+    public int intern(String signature) {
+        Integer index = indexes.get(signature);
+        if (index == null) {
+            if (size == signatures.length) {
+                signatures = Arrays.copyOf(signatures, size * 2);
+            }
+            index = size;
+            signatures[size++] = signature;
+            indexes.put(signature, index);
+        }
+        return index;
+    }
+
+    // Returns the index of a signature, or -1 if it hasn't been added.
+    public int indexOf(String signature) {
+        Integer index = indexes.get(signature);
+        return index != null ? index : -1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String get(int index) {
+        return signatures[index];
+    }
+
+}
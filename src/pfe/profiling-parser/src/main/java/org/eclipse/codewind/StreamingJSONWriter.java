@@ -0,0 +1,157 @@
+package org.eclipse.codewind;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes JSON straight into a reusable byte buffer that is flushed to a
+ * channel, formatting numbers and escaping strings without building
+ * intermediate strings.
+ */
+abstract class StreamingJSONWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    // Scratch space for formatting numbers, big enough for any long.
+    private final byte[] digits = new byte[20];
+
+    protected StreamingJSONWriter(WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    // Only used for the fixed ASCII parts of the layout.
+    protected void write(String ascii) throws IOException {
+        for (int i = 0; i < ascii.length(); i++) {
+            put((byte) ascii.charAt(i));
+        }
+    }
+
+    protected void writeLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            write(Long.toString(value));
+            return;
+        }
+        if (value < 0) {
+            put((byte) '-');
+            value = -value;
+        }
+        int pos = digits.length;
+        do {
+            digits[--pos] = (byte) ('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+        while (pos < digits.length) {
+            put(digits[pos++]);
+        }
+    }
+
+    // Writes a double with six decimal places, the same as %f but without the locale.
+    protected void writeFixed(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            // Not valid JSON numbers, which shouldn't happen for sample counts.
+            write("0.000000");
+            return;
+        }
+        // %f keeps the sign of values that round to zero, including -0.0.
+        if (value < 0 || (value == 0 && 1 / value < 0)) {
+            put((byte) '-');
+        }
+        double abs = Math.abs(value);
+        double millionths = abs * 1000000.0;
+        double remainder = millionths - Math.floor(millionths);
+        if (abs >= 1.0e6 || Math.abs(remainder - 0.5) < 1.0e-3) {
+            // %f rounds the shortest decimal that represents the double half up,
+            // which scaling in binary can't be relied on to match close to a half.
+            write(BigDecimal.valueOf(abs).setScale(6, RoundingMode.HALF_UP).toPlainString());
+            return;
+        }
+        long scaled = Math.round(millionths);
+        writeLong(scaled / 1000000);
+        put((byte) '.');
+        long fraction = scaled % 1000000;
+        for (long unit = 100000; unit > 0; unit /= 10) {
+            put((byte) ('0' + (fraction / unit) % 10));
+        }
+    }
+
+    // Writes a string as the inside of a JSON string literal, UTF-8 encoded.
+    protected void writeEscaped(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                put((byte) '\\');
+                put((byte) c);
+            } else if (c < 0x20) {
+                put((byte) '\\');
+                switch (c) {
+                case '\n': put((byte) 'n'); break;
+                case '\r': put((byte) 'r'); break;
+                case '\t': put((byte) 't'); break;
+                case '\b': put((byte) 'b'); break;
+                case '\f': put((byte) 'f'); break;
+                default:
+                    put((byte) 'u');
+                    put((byte) '0');
+                    put((byte) '0');
+                    put(HEX[c >> 4]);
+                    put(HEX[c & 0xF]);
+                }
+            } else if (c < 0x80) {
+                put((byte) c);
+            } else if (c < 0x800) {
+                put((byte) (0xC0 | (c >> 6)));
+                put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                put((byte) (0xF0 | (cp >> 18)));
+                put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                put((byte) (0x80 | (cp & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogate, can't be encoded as UTF-8 so escape it.
+                put((byte) '\\');
+                put((byte) 'u');
+                put(HEX[(c >> 12) & 0xF]);
+                put(HEX[(c >> 8) & 0xF]);
+                put(HEX[(c >> 4) & 0xF]);
+                put(HEX[c & 0xF]);
+            } else {
+                put((byte) (0xE0 | (c >> 12)));
+                put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    protected void put(byte b) throws IOException {
+        if (!buffer.hasRemaining()) {
+            flush();
+        }
+        buffer.put(b);
+    }
+
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+}
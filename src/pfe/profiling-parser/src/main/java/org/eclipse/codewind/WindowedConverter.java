@@ -0,0 +1,107 @@
+package org.eclipse.codewind;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Converts a long capture into one normalised tree per time window.
+ *
+ * Health Center in headless mode writes a new .hcd file for each run
+ * period, so a long capture is a series of files, each holding the samples
+ * for its own period. Files are bucketed into windows by the time they were
+ * written, measured from the first, and the trees of all the files in a
+ * window are merged into one. Each file is read once and each window is
+ * written out as soon as the next one starts, so only one window's tree is
+ * held at a time. If the files' modification times can't tell them apart,
+ * for example after copying them without keeping the times, nothing is
+ * converted rather than everything going into one window.
+ *
+ * All the trees share one signature table, so that they can be merged by
+ * signature. Each output only holds the signatures of its own window.
+ */
+public class WindowedConverter {
+
+    private final long windowMillis;
+    private final File outputDir;
+    private final boolean binary;
+    private final List<File> captures = new ArrayList<>();
+    private final SignatureTable signatures = new SignatureTable();
+
+    public WindowedConverter(long windowMillis, File outputDir, boolean binary) {
+        this.windowMillis = windowMillis;
+        this.outputDir = outputDir;
+        this.binary = binary;
+    }
+
+    public void add(File hcdFile) {
+        captures.add(hcdFile);
+    }
+
+    public void addDirectory(File inputDir) {
+        File[] hcdFiles = inputDir.listFiles((dir, name) -> name.endsWith(BatchConverter.HCD_SUFFIX));
+        if (hcdFiles != null) {
+            for (File hcdFile : hcdFiles) {
+                add(hcdFile);
+            }
+        }
+    }
+
+    /**
+     * Converts every window that has at least one capture in it and returns
+     * the number written. Windows are named window-&lt;n&gt; where n counts from
+     * the window holding the first capture, so gaps in the numbering are
+     * windows with no data.
+     */
+    public int run(PrintStream out) throws Exception {
+        if (captures.isEmpty()) {
+            return 0;
+        }
+        List<File> ordered = new ArrayList<>(captures);
+        ordered.sort(Comparator.comparingLong(File::lastModified).thenComparing(File::getName));
+        long start = ordered.get(0).lastModified();
+        long end = ordered.get(ordered.size() - 1).lastModified();
+        if (start == 0) {
+            throw new IOException("Cannot read the modification time of " + ordered.get(0));
+        }
+        if (ordered.size() > 1 && start == end) {
+            throw new IOException("All " + ordered.size() + " captures have the same modification time, "
+                    + "so they cannot be split into windows");
+        }
+
+        int written = 0;
+        long window = -1;
+        int windowCaptures = 0;
+        CompactTree windowTree = null;
+        for (File capture : ordered) {
+            long captureWindow = (capture.lastModified() - start) / windowMillis;
+            if (captureWindow != window && windowTree != null) {
+                writeWindow(window, windowTree, windowCaptures, out);
+                written++;
+                windowTree = null;
+            }
+            window = captureWindow;
+            CompactTree tree = ProfileConverter.loadTree(capture, signatures);
+            if (windowTree == null) {
+                windowTree = tree;
+                windowCaptures = 1;
+            } else {
+                windowTree.merge(tree);
+                windowCaptures++;
+            }
+        }
+        writeWindow(window, windowTree, windowCaptures, out);
+        return written + 1;
+    }
+
+    private void writeWindow(long window, CompactTree tree, int windowCaptures, PrintStream out) throws IOException {
+        tree.totalChildCounts();
+        File outputFile = new File(outputDir, String.format("window-%04d%s", window, binary ? ".bin" : ".json"));
+        ProfileConverter.writeTree(tree, outputFile, binary);
+        out.printf("Window %d: %d captures -> %s (%d nodes)\n", window, windowCaptures, outputFile, tree.size());
+    }
+
+}
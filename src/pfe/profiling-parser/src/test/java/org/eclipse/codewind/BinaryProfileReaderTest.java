@@ -0,0 +1,93 @@
+package org.eclipse.codewind;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+
+import junit.framework.TestCase;
+
+public class BinaryProfileReaderTest extends TestCase {
+
+    public void testRoundTrip() throws IOException {
+        CompactTree tree = new CompactTree();
+        int a = tree.addNode(0, "a", 2);
+        tree.addNode(a, "b", 1);
+        tree.addNode(0, "c", 3);
+
+        CompactTree read = read(write(tree));
+        assertEquals(tree.size(), read.size());
+        for (int i = 0; i < tree.size(); i++) {
+            assertEquals(tree.getParentId(i), read.getParentId(i));
+            assertEquals(tree.getSignature(i), read.getSignature(i));
+            assertEquals(tree.getCount(i), read.getCount(i), 0.0);
+        }
+    }
+
+    public void testBadMagic() {
+        assertFails(new byte[] { 'X', 'C', 'P', 'B', BinaryProfileWriter.VERSION });
+    }
+
+    public void testTruncated() throws IOException {
+        CompactTree tree = new CompactTree();
+        tree.addNode(0, "a", 1);
+        byte[] bytes = write(tree);
+        for (int length = 0; length < bytes.length; length++) {
+            byte[] truncated = new byte[length];
+            System.arraycopy(bytes, 0, truncated, 0, length);
+            assertFails(truncated);
+        }
+    }
+
+    public void testNegativeSignatureLength() {
+        // One signature, whose length is a 10 byte varint with the top bit set.
+        assertFails(header(1, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0x01));
+    }
+
+    public void testHugeSignatureLength() {
+        // One signature of Integer.MAX_VALUE bytes, with none of them there.
+        assertFails(header(1, 0xFF, 0xFF, 0xFF, 0xFF, 0x07));
+    }
+
+    public void testHugeNodeCount() {
+        // One signature, "root", then Integer.MAX_VALUE nodes and a total count of 0, but no nodes.
+        assertFails(header(1, 4, 'r', 'o', 'o', 't', 0xFF, 0xFF, 0xFF, 0xFF, 0x07, 0, 0, 0, 0, 0, 0, 0, 0));
+    }
+
+    private static byte[] header(int... rest) {
+        byte[] bytes = new byte[BinaryProfileWriter.MAGIC.length + 1 + rest.length];
+        System.arraycopy(BinaryProfileWriter.MAGIC, 0, bytes, 0, BinaryProfileWriter.MAGIC.length);
+        bytes[BinaryProfileWriter.MAGIC.length] = BinaryProfileWriter.VERSION;
+        for (int i = 0; i < rest.length; i++) {
+            bytes[BinaryProfileWriter.MAGIC.length + 1 + i] = (byte) rest[i];
+        }
+        return bytes;
+    }
+
+    private static byte[] write(CompactTree tree) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (BinaryProfileWriter writer = new BinaryProfileWriter(Channels.newChannel(out))) {
+            writer.writeTree(tree);
+        }
+        return out.toByteArray();
+    }
+
+    private static CompactTree read(byte[] bytes) throws IOException {
+        try (BinaryProfileReader reader = new BinaryProfileReader(Channels.newChannel(new ByteArrayInputStream(bytes)))) {
+            return reader.readTree();
+        }
+    }
+
+    private static void assertFails(byte[] bytes) {
+        try {
+            read(bytes);
+            fail("Read a corrupt profile of " + bytes.length + " bytes");
+        } catch (EOFException e) {
+            // Truncated
+        } catch (IOException e) {
+            // Malformed
+        }
+    }
+
+}